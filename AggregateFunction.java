@@ -0,0 +1,19 @@
+/**
+ * The ways a metric can be summarised over a date range by the AggregationEngine.
+ */
+public enum AggregateFunction
+{
+    SUM,
+    MEAN,
+    MIN,
+    MAX,
+    COUNT;
+
+    /**
+     * @return true if the function can be answered from running totals alone, without reading the rows
+     */
+    public boolean usesRunningTotals()
+    {
+        return this != MIN && this != MAX;
+    }
+}
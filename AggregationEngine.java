@@ -0,0 +1,396 @@
+import java.util.EnumSet;
+import java.util.Locale;
+
+/**
+ * The AggregationEngine class works out every statistic of an AggregationQuery together.
+ * Sums, means and counts come straight from the table's PrefixSumIndex. Minimums and maximums are put together from
+ * the table's RollupIndex: whole months and weeks of the date range (and borough, if the query has one) are read
+ * from their buckets, and only the days at the ends of the range that do not make up a whole week are read row by
+ * row. Every metric that needs them is gathered at the same time, so adding more statistics never adds another pass.
+ *
+ * Setting the covid.rollups system property to false makes the engine read every row of the range instead. Given a
+ * ParallelScanner, such passes over large ranges are split across a fork-join pool with the same results.
+ *
+ * Given a QueryCache, minimums and maximums already worked out for the same table are taken from the cache, and rows
+ * are only read for those that are missing. Sums, means and counts are never cached, as the running totals answer
+ * them faster than a lookup.
+ *
+ * The time of every query is recorded in the query histograms of Metrics, and reported to Flight Recorder.
+ */
+public class AggregationEngine
+{
+    private final CovidDataTable table;
+    private final ParallelScanner scanner; // Used for passes over many rows, or null to always stay sequential
+    private final boolean useRollups;
+    private final QueryCache cache; // Remembers earlier statistics, or null to always work them out
+
+    // The time taken by queries, by the kinds of aggregate they asked for
+    private static final Metrics.Histogram[] QUERY_TIMES = new Metrics.Histogram[AggregateFunction.values().length];
+    private static final Metrics.Counter QUERIES = Metrics.counter("queries");
+    private static final Metrics.Counter CACHED_QUERIES = Metrics.counter("queries.cached");
+
+    static
+    {
+        for (AggregateFunction function : AggregateFunction.values())
+        {
+            QUERY_TIMES[function.ordinal()] = Metrics.histogram("query." + function.name().toLowerCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Creates an engine that reads rows on the calling thread only.
+     *
+     * @param table the table to answer queries from
+     */
+    public AggregationEngine(CovidDataTable table)
+    {
+        this(table, null);
+    }
+
+    /**
+     * Creates an engine that hands passes over large ranges to a parallel scanner.
+     *
+     * @param table the table to answer queries from
+     * @param scanner the scanner for large passes, or null to always stay sequential
+     */
+    public AggregationEngine(CovidDataTable table, ParallelScanner scanner)
+    {
+        this(table, scanner, null);
+    }
+
+    /**
+     * Creates an engine that remembers the statistics it works out.
+     *
+     * @param table the table to answer queries from
+     * @param scanner the scanner for large passes, or null to always stay sequential
+     * @param cache the cache to keep statistics in, or null to always work them out
+     */
+    public AggregationEngine(CovidDataTable table, ParallelScanner scanner, QueryCache cache)
+    {
+        this.table = table;
+        this.scanner = scanner;
+        this.cache = cache;
+        this.useRollups = !"false".equals(System.getProperty("covid.rollups"));
+    }
+
+    /**
+     * Answers every statistic of a query.
+     *
+     * @param query the statistics to work out
+     * @return the value of every statistic, in query order
+     */
+    public AggregationResult run(AggregationQuery query)
+    {
+        long start = Metrics.start();
+        Metrics.QueryEvent event = new Metrics.QueryEvent();
+        event.begin();
+
+        double[] values = new double[query.size()];
+        boolean[] found = new boolean[query.size()];
+        boolean cached = cache != null && fromCache(query, values, found);
+        AggregationResult result = compute(query, values, found);
+
+        if (Metrics.ENABLED)
+        {
+            QUERIES.increment();
+            if (cached)
+            {
+                CACHED_QUERIES.increment();
+            }
+            // The time of the query counts towards each kind of aggregate it asked for
+            long nanos = System.nanoTime() - start;
+            EnumSet<AggregateFunction> functions = EnumSet.noneOf(AggregateFunction.class);
+            for (int i = 0; i < query.size(); i++)
+            {
+                functions.add(query.getFunction(i));
+            }
+            for (AggregateFunction function : functions)
+            {
+                QUERY_TIMES[function.ordinal()].record(nanos);
+            }
+        }
+        if (event.shouldCommit())
+        {
+            event.startDay = query.getStartDay();
+            event.endDay = query.getEndDay();
+            event.boroughId = query.getBoroughId();
+            event.statistics = query.size();
+            event.cached = cached;
+            event.commit();
+        }
+        return result;
+    }
+
+    /**
+     * Takes the statistics of a query that need the rows to be read from the cache.
+     *
+     * @param query the query
+     * @param values where to put the value of each statistic found
+     * @param found set to true for each statistic found
+     * @return true if the query has statistics that need the rows to be read and every one of them was found
+     */
+    private boolean fromCache(AggregationQuery query, double[] values, boolean[] found)
+    {
+        boolean needsRows = false;
+        boolean missing = false;
+        for (int i = 0; i < query.size(); i++)
+        {
+            if (query.getFunction(i).usesRunningTotals())
+            {
+                continue;
+            }
+            needsRows = true;
+            Double value = cache.get(table, query.getStartDay(), query.getEndDay(), query.getBoroughId(), query.getMetric(i), query.getFunction(i));
+            if (value == null)
+            {
+                missing = true;
+            }
+            else
+            {
+                values[i] = value;
+                found[i] = true;
+            }
+        }
+        return needsRows && !missing;
+    }
+
+    /**
+     * @return the number of rows in the query's date range and borough
+     */
+    private int rowCount(AggregationQuery query)
+    {
+        PrefixSumIndex prefixSums = table.getPrefixSums();
+        return query.getBoroughId() == AggregationQuery.ALL_BOROUGHS
+            ? prefixSums.count(query.getStartDay(), query.getEndDay())
+            : prefixSums.count(query.getBoroughId(), query.getStartDay(), query.getEndDay());
+    }
+
+    /**
+     * Works out every statistic of a query that was not found in the cache, adding the minimums and maximums to the
+     * cache if there is one.
+     *
+     * @param query the query
+     * @param values the value of each statistic found in the cache, filled in with the rest
+     * @param found true for each statistic found in the cache
+     */
+    private AggregationResult compute(AggregationQuery query, double[] values, boolean[] found)
+    {
+        PrefixSumIndex prefixSums = table.getPrefixSums();
+        int startDay = query.getStartDay();
+        int endDay = query.getEndDay();
+        int boroughId = query.getBoroughId();
+        boolean allBoroughs = boroughId == AggregationQuery.ALL_BOROUGHS;
+        int rowCount = rowCount(query);
+
+        // Find the metrics that need the rows to be read
+        EnumSet<CovidMetric> scanned = EnumSet.noneOf(CovidMetric.class);
+        for (int i = 0; i < query.size(); i++)
+        {
+            if (!query.getFunction(i).usesRunningTotals() && !found[i])
+            {
+                scanned.add(query.getMetric(i));
+            }
+        }
+        Accumulator accumulator = scanned.isEmpty() ? null : scan(query, scanned.toArray(new CovidMetric[0]));
+
+        for (int i = 0; i < query.size(); i++)
+        {
+            if (found[i])
+            {
+                continue;
+            }
+            CovidMetric metric = query.getMetric(i);
+            switch (query.getFunction(i))
+            {
+                case SUM:
+                    values[i] = allBoroughs ? prefixSums.sum(metric, startDay, endDay) : prefixSums.sum(metric, boroughId, startDay, endDay);
+                    break;
+                case MEAN:
+                    values[i] = allBoroughs ? prefixSums.mean(metric, startDay, endDay) : prefixSums.mean(metric, boroughId, startDay, endDay);
+                    break;
+                case COUNT:
+                    values[i] = rowCount;
+                    break;
+                case MIN:
+                    values[i] = accumulator.min(metric);
+                    break;
+                case MAX:
+                    values[i] = accumulator.max(metric);
+                    break;
+            }
+            if (cache != null && !query.getFunction(i).usesRunningTotals())
+            {
+                cache.put(table, startDay, endDay, boroughId, metric, query.getFunction(i), values[i]);
+            }
+        }
+        return new AggregationResult(query, values, rowCount);
+    }
+
+    /**
+     * Gathers the given metrics over the query's range, from the rollups where possible or else by reading every
+     * row of the range once.
+     *
+     * @param query the query giving the date range and borough
+     * @param metrics the metrics to gather
+     * @return the gathered totals
+     */
+    private Accumulator scan(AggregationQuery query, CovidMetric[] metrics)
+    {
+        if (useRollups)
+        {
+            Accumulator accumulator = new Accumulator(table, metrics);
+            table.getRollups().accumulate(accumulator, query.getBoroughId(), query.getStartDay(), query.getEndDay());
+            return accumulator;
+        }
+        int[] rows = null;
+        int first;
+        int end;
+        if (query.getBoroughId() == AggregationQuery.ALL_BOROUGHS)
+        {
+            first = table.firstRowOnOrAfter(query.getStartDay());
+            end = Math.max(first, table.firstRowAfter(query.getEndDay()));
+        }
+        else
+        {
+            rows = table.getBoroughRows(query.getBoroughId());
+            first = table.firstBoroughRowOnOrAfter(query.getBoroughId(), query.getStartDay());
+            end = Math.max(first, table.firstBoroughRowAfter(query.getBoroughId(), query.getEndDay()));
+        }
+        if (scanner != null && end - first > scanner.getThreshold())
+        {
+            return scanner.scan(table, rows, first, end, metrics);
+        }
+
+        Accumulator accumulator = new Accumulator(table, metrics);
+        for (int i = first; i < end; i++)
+        {
+            accumulator.add(rows == null ? i : rows[i]);
+        }
+        return accumulator;
+    }
+
+    /**
+     * The Accumulator class gathers the count, sum, minimum and maximum of a few metrics as rows are added.
+     */
+    static class Accumulator
+    {
+        private final CovidMetric[] metrics;
+        private final int[][] columns;
+        private final long[] sums;
+        private final int[] mins;
+        private final int[] maxs;
+        private long count;
+
+        /**
+         * @param table the table the rows come from
+         * @param metrics the metrics to gather
+         */
+        Accumulator(CovidDataTable table, CovidMetric[] metrics)
+        {
+            this.metrics = metrics;
+            this.columns = new int[metrics.length][];
+            this.sums = new long[metrics.length];
+            this.mins = new int[metrics.length];
+            this.maxs = new int[metrics.length];
+            for (int m = 0; m < metrics.length; m++)
+            {
+                columns[m] = table.getColumn(metrics[m]);
+                mins[m] = Integer.MAX_VALUE;
+                maxs[m] = Integer.MIN_VALUE;
+            }
+        }
+
+        /**
+         * @param row the index of a row of the table to include
+         */
+        void add(int row)
+        {
+            for (int m = 0; m < columns.length; m++)
+            {
+                int value = columns[m][row];
+                sums[m] += value;
+                if (value < mins[m])
+                {
+                    mins[m] = value;
+                }
+                if (value > maxs[m])
+                {
+                    maxs[m] = value;
+                }
+            }
+            count++;
+        }
+
+        /**
+         * Adds a whole bucket of rows, using the totals already worked out for it.
+         *
+         * @param buckets the buckets of a RollupIndex
+         * @param bucket the index of the bucket to include
+         */
+        void add(RollupIndex.Buckets buckets, int bucket)
+        {
+            for (int m = 0; m < metrics.length; m++)
+            {
+                int metric = metrics[m].ordinal();
+                sums[m] += buckets.sum(metric, bucket);
+                mins[m] = Math.min(mins[m], buckets.min(metric, bucket));
+                maxs[m] = Math.max(maxs[m], buckets.max(metric, bucket));
+            }
+            count += buckets.count(bucket);
+        }
+
+        /**
+         * Adds the totals of another accumulator, gathered over different rows of the same metrics, to this one.
+         *
+         * @param other the accumulator to merge in
+         */
+        void merge(Accumulator other)
+        {
+            for (int m = 0; m < columns.length; m++)
+            {
+                sums[m] += other.sums[m];
+                mins[m] = Math.min(mins[m], other.mins[m]);
+                maxs[m] = Math.max(maxs[m], other.maxs[m]);
+            }
+            count += other.count;
+        }
+
+        long count()
+        {
+            return count;
+        }
+
+        long sum(CovidMetric metric)
+        {
+            return sums[indexOf(metric)];
+        }
+
+        /**
+         * @return the smallest value of the metric, or NaN if no rows were added
+         */
+        double min(CovidMetric metric)
+        {
+            return count == 0 ? Double.NaN : mins[indexOf(metric)];
+        }
+
+        /**
+         * @return the largest value of the metric, or NaN if no rows were added
+         */
+        double max(CovidMetric metric)
+        {
+            return count == 0 ? Double.NaN : maxs[indexOf(metric)];
+        }
+
+        private int indexOf(CovidMetric metric)
+        {
+            for (int m = 0; m < metrics.length; m++)
+            {
+                if (metrics[m] == metric)
+                {
+                    return m;
+                }
+            }
+            throw new IllegalArgumentException(metric + " was not gathered");
+        }
+    }
+}
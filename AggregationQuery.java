@@ -0,0 +1,101 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An AggregationQuery describes a set of statistics to work out over one date range, either for the whole of London
+ * or for a single borough. Each statistic is a metric paired with an AggregateFunction, added with add().
+ * The AggregationEngine answers every statistic of a query together.
+ */
+public class AggregationQuery
+{
+    /**
+     * The borough id used for queries over the whole of London.
+     */
+    public static final int ALL_BOROUGHS = -1;
+
+    private final int startDay;
+    private final int endDay;
+    private final int boroughId;
+    private final List<CovidMetric> metrics = new ArrayList<>();
+    private final List<AggregateFunction> functions = new ArrayList<>();
+
+    /**
+     * Creates a query over the whole of London.
+     *
+     * @param startDay the first day of the range, as an epoch day
+     * @param endDay the last day of the range, as an epoch day
+     */
+    public AggregationQuery(int startDay, int endDay)
+    {
+        this(startDay, endDay, ALL_BOROUGHS);
+    }
+
+    /**
+     * Creates a query over one borough, or over the whole of London.
+     *
+     * @param startDay the first day of the range, as an epoch day
+     * @param endDay the last day of the range, as an epoch day
+     * @param boroughId the id of the borough, or ALL_BOROUGHS
+     */
+    public AggregationQuery(int startDay, int endDay, int boroughId)
+    {
+        this.startDay = startDay;
+        this.endDay = endDay;
+        this.boroughId = boroughId;
+    }
+
+    /**
+     * Adds a statistic to the query.
+     *
+     * @param metric the metric to summarise
+     * @param function how to summarise it
+     * @return this query, so calls can be chained
+     */
+    public AggregationQuery add(CovidMetric metric, AggregateFunction function)
+    {
+        metrics.add(metric);
+        functions.add(function);
+        return this;
+    }
+
+    public int getStartDay()
+    {
+        return startDay;
+    }
+
+    public int getEndDay()
+    {
+        return endDay;
+    }
+
+    public int getBoroughId()
+    {
+        return boroughId;
+    }
+
+    /**
+     * @return the number of statistics in the query
+     */
+    public int size()
+    {
+        return metrics.size();
+    }
+
+    /**
+     * @param index the position of a statistic, in the order it was added
+     * @return the metric of the statistic
+     */
+    public CovidMetric getMetric(int index)
+    {
+        return metrics.get(index);
+    }
+
+    /**
+     * @param index the position of a statistic, in the order it was added
+     * @return the function of the statistic
+     */
+    public AggregateFunction getFunction(int index)
+    {
+        return functions.get(index);
+    }
+}
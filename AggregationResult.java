@@ -0,0 +1,63 @@
+/**
+ * The answers to an AggregationQuery, in the same order as the statistics were added to the query.
+ */
+public class AggregationResult
+{
+    private final AggregationQuery query;
+    private final double[] values;
+    private final int rowCount;
+
+    /**
+     * @param query the query that was answered
+     * @param values the value of each statistic, in query order
+     * @param rowCount the number of rows inside the query's range
+     */
+    public AggregationResult(AggregationQuery query, double[] values, int rowCount)
+    {
+        this.query = query;
+        this.values = values;
+        this.rowCount = rowCount;
+    }
+
+    /**
+     * @param index the position of a statistic in the query
+     * @return the value of the statistic. Means, minimums and maximums are NaN if there were no rows in the range
+     */
+    public double getValue(int index)
+    {
+        return values[index];
+    }
+
+    /**
+     * Looks up a statistic by its metric and function.
+     *
+     * @param metric the metric of the statistic
+     * @param function the function of the statistic
+     * @return the value of the statistic
+     * @throws IllegalArgumentException if the query did not ask for the statistic
+     */
+    public double get(CovidMetric metric, AggregateFunction function)
+    {
+        for (int i = 0; i < query.size(); i++)
+        {
+            if (query.getMetric(i) == metric && query.getFunction(i) == function)
+            {
+                return values[i];
+            }
+        }
+        throw new IllegalArgumentException("The query did not ask for " + function + " of " + metric);
+    }
+
+    /**
+     * @return the number of rows inside the query's range
+     */
+    public int getRowCount()
+    {
+        return rowCount;
+    }
+
+    public AggregationQuery getQuery()
+    {
+        return query;
+    }
+}
@@ -1,19 +1,25 @@
 
 import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.concurrent.Task;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
 import javafx.scene.control.ComboBox;
+import javafx.scene.control.Label;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.StackPane;
 import javafx.stage.Stage;
-import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
+import javafx.util.StringConverter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
 /**
  * The ApplicationWindow class is the first and main window of this application that displays different panels based on user interaction. 
@@ -26,14 +32,42 @@ public class ApplicationWindow extends Application {
     
     private BorderPane root; // The root layout of the application
     private int currentIndex = 0; // Index of the currently displayed panel
-    private ComboBox<String> fromDateComboBox; 
-    private ComboBox<String> toDateComboBox; 
+    private ComboBox<Integer> fromDateComboBox; // Dates are epoch days, shown as yyyy-MM-dd
+    private ComboBox<Integer> toDateComboBox; 
     private Button backButton;
     private Button forwardButton;
+    private ExecutorService backgroundExecutor; // Loads and calculates panel data away from the JavaFX application thread
+    private Task<?> currentTask; // The background work for the panel being shown, if it is still running
+    private CovidHttpServer httpServer; // Serves the same data to other tools, if covid.http.port is set
+    private Map map; // The last map shown, whose choices a new map keeps
+    
+    // Shows the epoch days of the date boxes as yyyy-MM-dd
+    private static final StringConverter<Integer> DATE_CONVERTER = new StringConverter<Integer>() {
+        @Override
+        public String toString(Integer epochDay) {
+            return epochDay == null ? "" : EpochDays.format(epochDay);
+        }
+
+        @Override
+        public Integer fromString(String date) {
+            return date == null || date.isEmpty() ? null : EpochDays.parse(date);
+        }
+    };
 
     @Override
     public void start(Stage primaryStage) {
         this.root = new BorderPane();
+        this.backgroundExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "panel-data-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Start loading the dataset straight away, so it is usually ready by the time the dates are picked
+        backgroundExecutor.execute(() -> CovidDataRepository.getInstance().getTable());
+        // Pick up rows appended to the csv file while the application is open, and redraw the panel showing them
+        CovidDataRepository.getInstance().addChangeListener(() -> Platform.runLater(this::refreshPanel));
+        backgroundExecutor.execute(() -> CovidDataRepository.getInstance().startWatching());
+        httpServer = CovidHttpServer.startIfConfigured();
         
         // Create and display the first welcome screen panel
         WelcomeScreen welcomeScreen = new WelcomeScreen(this.root, null, null );
@@ -57,8 +91,11 @@ public class ApplicationWindow extends Application {
         HBox dateSelection = new HBox(10);
         fromDateComboBox = new ComboBox<>();
         toDateComboBox = new ComboBox<>();
-        fromDateComboBox.getItems().addAll(getDateOptions("2020-01-01", "2023-02-09"));
-        toDateComboBox.getItems().addAll(getDateOptions("2020-01-01", "2023-02-09"));
+        List<Integer> dateOptions = getDateOptions(EpochDays.of(2020, 1, 1), EpochDays.of(2023, 2, 9));
+        fromDateComboBox.getItems().addAll(dateOptions);
+        toDateComboBox.getItems().addAll(dateOptions);
+        fromDateComboBox.setConverter(DATE_CONVERTER);
+        toDateComboBox.setConverter(DATE_CONVERTER);
         fromDateComboBox.setPromptText("From Date");
         toDateComboBox.setPromptText("To Date");
         fromDateComboBox.setOnAction(e -> validateDateRange());
@@ -72,26 +109,29 @@ public class ApplicationWindow extends Application {
         primaryStage.show();
     }
     
+    /**
+     * Stops the query server, if one was started, when the window is closed.
+     */
+    @Override
+    public void stop() {
+        if (httpServer != null) {
+            httpServer.stop();
+        }
+    }
+    
     /**
      * Generates a list of date options between the specified start and end dates.
      * 
-     * @param startDateStr The start date string.
-     * @param endDateStr The end date string.
-     * @return A list of date options.
+     * @param startDay The first date, as an epoch day.
+     * @param endDay The last date, as an epoch day.
+     * @return A list of date options, as epoch days.
      */
 
-    private List<String> getDateOptions(String startDateStr, String endDateStr) {
-        List<String> dateOptions = new ArrayList<>();
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
-        LocalDate startDate = LocalDate.parse(startDateStr, formatter);
-        LocalDate endDate = LocalDate.parse(endDateStr, formatter);
-        LocalDate currentDate = startDate;
-        
-        while (!currentDate.isAfter(endDate)) {
-            dateOptions.add(currentDate.format(formatter));
-            currentDate = currentDate.plusDays(1);
+    private List<Integer> getDateOptions(int startDay, int endDay) {
+        List<Integer> dateOptions = new ArrayList<>(endDay - startDay + 1);
+        for (int day = startDay; day <= endDay; day++) {
+            dateOptions.add(day);
         }
-
         return dateOptions;
     }
 
@@ -152,13 +192,12 @@ public class ApplicationWindow extends Application {
         }
         
         else{
-            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
-            LocalDate fromDate = LocalDate.parse(fromDateComboBox.getValue(), formatter);
+            int fromDay = fromDateComboBox.getValue();
 
             if (toDateComboBox.getValue() != null)
             {
-                LocalDate toDate = LocalDate.parse(toDateComboBox.getValue(), formatter);
-                if (fromDate.isAfter(toDate)) {
+                int toDay = toDateComboBox.getValue();
+                if (fromDay > toDay) {
                     Alert alert = new Alert(Alert.AlertType.ERROR);
                     alert.setTitle("Invalid Date Range");
                     alert.setHeaderText("WARNING!!!");
@@ -178,32 +217,131 @@ public class ApplicationWindow extends Application {
     
     /**
      * Creates and displays a panel based on the current index.
+     * Panels that need the dataset are calculated in the background, with a placeholder shown until they are ready.
      * 
      * @param currentIndex The index of the panel to create.
      */
     private void createPanel(int currentIndex)
     {
+        Integer fromDate = fromDateComboBox.getValue();
+        Integer toDate = toDateComboBox.getValue();
+        // Panel build time runs from here until the panel is shown, including any background calculation
+        long start = Metrics.start();
+        Metrics.PanelEvent event = new Metrics.PanelEvent();
+        event.begin();
+        
         if (currentIndex == 0)
         {
+            cancelCurrentTask();
             root.setLeft(null);
             root.setRight(null);
-            WelcomeScreen welcomeScreen = new WelcomeScreen(this.root, fromDateComboBox.getValue(), toDateComboBox.getValue() );
+            WelcomeScreen welcomeScreen = new WelcomeScreen(this.root, fromDate, toDate);
+            panelShown("welcome", start, event);
         }
         else if (currentIndex == 1)
         {
-            root.setLeft(null);
-            root.setRight(null);
-            Map map = new Map(fromDateComboBox.getValue(), toDateComboBox.getValue(), this.root);
+            // Keep the value and color classes picked on the last map, such as when it is redrawn for new rows
+            CovidMetric metric = map == null ? CovidMetric.TOTAL_DEATHS : map.getMetric();
+            ChoroplethClassifier.Method method = map == null ? ChoroplethClassifier.Method.FIXED : map.getMethod();
+            runInBackground(() -> Map.calculateValues(metric, fromDate, toDate),
+                values -> {
+                    map = new Map(fromDate, toDate, metric, method, values, this.root);
+                    panelShown("map", start, event);
+                });
         }
         else if (currentIndex == 2)
         {
-            Statistics statistics = new Statistics(fromDateComboBox.getValue(), toDateComboBox.getValue(), this.root);
+            runInBackground(() -> Statistics.calculate(fromDate, toDate),
+                result -> {
+                    new Statistics(fromDate, toDate, result, this.root);
+                    panelShown("statistics", start, event);
+                });
         }
         else if (currentIndex == 3)
         {
+            cancelCurrentTask();
             root.setLeft(null);
             root.setRight(null);
             CovidSymptomChecker covidChecker = new CovidSymptomChecker(this.root);
+            panelShown("symptoms", start, event);
+        }
+    }
+    
+    /**
+     * Records how long a panel took to build, in the metrics and for Flight Recorder.
+     * 
+     * @param panel The name of the panel.
+     * @param start The time from Metrics.start() when the panel was asked for.
+     * @param event The Flight Recorder event begun when the panel was asked for.
+     */
+    private void panelShown(String panel, long start, Metrics.PanelEvent event)
+    {
+        Metrics.histogram("panel." + panel).recordSince(start);
+        if (event.shouldCommit()) {
+            event.panel = panel;
+            event.commit();
+        }
+    }
+    
+    /**
+     * Builds the current panel again after the dataset has changed, if it is a panel that shows the data.
+     */
+    private void refreshPanel()
+    {
+        if ((currentIndex == 1 || currentIndex == 2) && !forwardButton.isDisable()
+            && fromDateComboBox.getValue() != null && toDateComboBox.getValue() != null)
+        {
+            createPanel(currentIndex);
+        }
+    }
+    
+    /**
+     * Calculates the data for a panel on the background thread while a placeholder is shown, then builds the panel
+     * on the JavaFX application thread. Any earlier calculation that has not finished yet is cancelled, so only the
+     * latest selection is ever shown.
+     * 
+     * @param work The calculation to run in the background.
+     * @param show Builds the panel from the result of the calculation.
+     */
+    private <T> void runInBackground(Callable<T> work, Consumer<T> show)
+    {
+        cancelCurrentTask();
+        root.setLeft(null);
+        root.setRight(null);
+        root.setCenter(new Label("Loading..."));
+        
+        Task<T> task = new Task<T>() {
+            @Override
+            protected T call() throws Exception {
+                return work.call();
+            }
+        };
+        // These handlers are run on the JavaFX application thread once the task is done
+        task.setOnSucceeded(event -> {
+            if (currentTask == task) {
+                currentTask = null;
+                show.accept(task.getValue());
+            }
+        });
+        task.setOnFailed(event -> {
+            if (currentTask == task) {
+                currentTask = null;
+                task.getException().printStackTrace();
+                root.setCenter(new Label("Something went wrong while loading the data"));
+            }
+        });
+        currentTask = task;
+        backgroundExecutor.execute(task);
+    }
+    
+    /**
+     * Cancels the background calculation for the panel that was being shown, if it is still running.
+     */
+    private void cancelCurrentTask()
+    {
+        if (currentTask != null) {
+            currentTask.cancel();
+            currentTask = null;
         }
     }
     
@@ -1,67 +1,42 @@
 import javafx.application.Application;
+import javafx.beans.property.ReadOnlyObjectWrapper;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.scene.Scene;
-import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.Label;
-import javafx.scene.control.ListView;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.text.ParseException;
-import java.util.List;
 import java.util.ArrayList;
-import java.net.URL;
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.File;
-import java.io.IOException;
-import java.net.URISyntaxException;
-import java.util.Comparator;
+import java.util.List;
 
 /**
  * The Borough class is a JavaFX application that displays COVID-19 records for a specific borough within a specified date range.
+ * The records are shown in a table with one column per value. Each row of the table is only the index of a row in
+ * the shared dataset, and values are formatted as rows scroll into view, so large date ranges open and scroll quickly.
  * @author (Jasmin Bedi)
  */
 public class Borough extends Application {
-    private SimpleDateFormat sdf; // Define the format the date is represented in
     private String borough;
-    private ObservableList<String> boroughRecords;
-    private String titles;
+    private CovidDataTable table; // The shared dataset the records are read from
+    private ObservableList<Integer> boroughRecords; // The dataset rows of the borough within the date range
     
     /**
      * Constructs a Borough object with the given borough name, start date, and end date.
      * 
      * @param borough The name of the borough for which records will be displayed.
-     * @param startDateString The start date of the date range, represented as a string.
-     * @param endDateString The end date of the date range, represented as a string.
+     * @param startDay The first day of the date range, as an epoch day.
+     * @param endDay The last day of the date range, as an epoch day.
      */
-    public Borough(String borough, String startDateString, String endDateString) 
+    public Borough(String borough, int startDay, int endDay) 
     {
         this.borough = borough;
-        sdf = new SimpleDateFormat("yyyy-MM-dd");
-        List<String> filteredRecords = new ArrayList<>();
-        URL url = getClass().getResource("covid_london.csv");
         
-        // Read data from the CSV file and filter records based on the borough and date range
-        try (BufferedReader br = new BufferedReader(new FileReader(new File(url.toURI()).getAbsolutePath()))) {
-            titles = br.readLine(); // Read the title of the CSV file
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] parts = line.split(",");
-                String date = parts[0].trim();
-                if (date.compareTo(startDateString) >= 0 && date.compareTo(endDateString) <= 0 && borough.equals(parts[1])) {
-                    filteredRecords.add(line);
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        catch (URISyntaxException e) {
-            e.printStackTrace();
-        }
-        boroughRecords = FXCollections.observableArrayList(filteredRecords);
+        // Look up the borough's rows for the date range in the shared dataset
+        table = CovidDataRepository.getInstance().getTable();
+        boroughRecords = FXCollections.observableArrayList(toList(CovidQueryService.findRows(table, borough, startDay, endDay)));
     
         start(new Stage());
     }
@@ -70,8 +45,6 @@ public class Borough extends Application {
     public void start(Stage primaryStage) {
         primaryStage.setTitle("Records for " + borough);
         
-        ListView<String> listView = new ListView<>(boroughRecords);
-        
         VBox layout = new VBox(10);
         
         // Check if there are records available for the selected borough and date range
@@ -81,96 +54,67 @@ public class Borough extends Application {
             layout.getChildren().addAll(titleLabel);
         }
         else {
-            Label titleLabel = new Label(titles);
-
-            ChoiceBox<String> sortChoiceBox = new ChoiceBox<>(); // Create a ChoiceBox for sorting options
-            sortChoiceBox.getItems().addAll("Date", "Retail Recreation GMR", "Grocery Pharmacy GMR", "Parks GMR","Transit GMR", "Workplaces GMR", "Residential GMR", "New COVID Cases", "Total COVID Cases", "New COVID Deaths");
-            sortChoiceBox.setValue("Date"); // Default sorting option
+            TableView<Integer> tableView = new TableView<>(boroughRecords);
             
-            // Define action for sorting choice box
-            sortChoiceBox.setOnAction(event -> {
-                String selectedSort = sortChoiceBox.getValue();
-                switch (selectedSort) {
-                    case "Date":
-                        boroughRecords.sort(Comparator.comparing(this::getDate));
-                        break;
-                    case "Retail Recreation GMR":
-                        boroughRecords.sort(Comparator.comparing(this::getRetailRecreationGMR));
-                        break;
-                    case "Grocery Pharmacy GMR":
-                        boroughRecords.sort(Comparator.comparing(this::getGroceryPharmacyGMR));
-                        break;
-                    case "Parks GMR":
-                        boroughRecords.sort(Comparator.comparing(this::getParksGMR));
-                        break;
-                    case "Transit GMR":
-                        boroughRecords.sort(Comparator.comparing(this::getTransitGMR));
-                        break;
-                    case "Workplaces GMR":
-                        boroughRecords.sort(Comparator.comparing(this::getWorkplacesGMR));
-                        break;
-                    case "Residential GMR":
-                        boroughRecords.sort(Comparator.comparing(this::getResidentialGMR));
-                        break;
-                    case "New COVID Cases":
-                        boroughRecords.sort(Comparator.comparing(this::getNewCases));
-                        break;
-                    case "Total COVID Cases":
-                        boroughRecords.sort(Comparator.comparing(this::getTotalCases));
-                        break;
-                    case "New COVID Deaths":
-                        boroughRecords.sort(Comparator.comparing(this::getNewDeaths));
-                        break;
-                }
+            // The date column. Its user data is left empty, which the sort policy takes to mean the date
+            TableColumn<Integer, String> dateColumn = new TableColumn<>("Date");
+            dateColumn.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(EpochDays.format(table.getDate(cell.getValue()))));
+            tableView.getColumns().add(dateColumn);
+            
+            // One column per value, each remembering its metric as user data
+            for (CovidMetric metric : CovidMetric.values()) {
+                TableColumn<Integer, Number> column = new TableColumn<>(metric.getDisplayName());
+                column.setUserData(metric);
+                column.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(table.getValue(metric, cell.getValue())));
+                tableView.getColumns().add(column);
+            }
+            
+            // Clicking a column header sorts by that column, using keys read straight from the dataset
+            tableView.setSortPolicy(view -> {
+                sortRecords(view.getSortOrder());
+                return true;
             });
-            layout.getChildren().addAll(titleLabel, listView, sortChoiceBox);
+            
+            VBox.setVgrow(tableView, Priority.ALWAYS);
+            layout.getChildren().addAll(tableView);
         }
         
-        Scene scene = new Scene(layout, 600, 400);
+        Scene scene = new Scene(layout, 900, 400);
         primaryStage.setScene(scene);
         primaryStage.show();
     }
 
-    private String getDate(String record) {
-        return record.split(",")[0].trim();
-    }
-
-    private int getRetailRecreationGMR(String record) {
-        return Integer.parseInt(record.split(",")[2].trim());
-    }
-    
-    private int getGroceryPharmacyGMR(String record) {
-        return Integer.parseInt(record.split(",")[3].trim());
-    }
-    
-    private int getParksGMR(String record) {
-        return Integer.parseInt(record.split(",")[4].trim());
-    }
-    
-    private int getTransitGMR(String record) {
-        return Integer.parseInt(record.split(",")[5].trim());
-    }
-    
-    private int getWorkplacesGMR(String record) {
-        return Integer.parseInt(record.split(",")[6].trim());
+    /**
+     * Sorts the rows by the table's sort columns. Each column's keys are read from the dataset once, and the columns
+     * are applied from the last to the first with a stable sort, so ties in one column are broken by the next.
+     * With no sort columns the rows go back into date order.
+     * 
+     * @param sortOrder The columns to sort by, most important first.
+     */
+    private void sortRecords(List<TableColumn<Integer, ?>> sortOrder) {
+        int[] rows = new int[boroughRecords.size()];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = boroughRecords.get(i);
+        }
+        
+        if (sortOrder.isEmpty()) {
+            rows = CovidQueryService.sortRows(table, rows, null, false);
+        }
+        for (int c = sortOrder.size() - 1; c >= 0; c--) {
+            TableColumn<Integer, ?> column = sortOrder.get(c);
+            rows = CovidQueryService.sortRows(table, rows, (CovidMetric) column.getUserData(), column.getSortType() == TableColumn.SortType.DESCENDING);
+        }
+        boroughRecords.setAll(toList(rows));
     }
     
-    private int getResidentialGMR(String record) {
-        return Integer.parseInt(record.split(",")[7].trim());
-    }
-
-    private int getNewCases(String record) {
-        return Integer.parseInt(record.split(",")[8].trim());
-    }
-
-    private int getTotalCases(String record) {
-        return Integer.parseInt(record.split(",")[9].trim());
+    private static List<Integer> toList(int[] rows) {
+        List<Integer> list = new ArrayList<>(rows.length);
+        for (int row : rows) {
+            list.add(row);
+        }
+        return list;
     }
 
-    private int getNewDeaths(String record) {
-        return Integer.parseInt(record.split(",")[10].trim());
-    } 
-
     public static void main(String[] args) {
         launch(args);
     }
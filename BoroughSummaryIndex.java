@@ -0,0 +1,95 @@
+import java.util.Arrays;
+
+/**
+ * The BoroughSummaryIndex class answers "what was the latest value of this metric for this borough on a given day".
+ *
+ * For running totals such as total deaths, the dataset sometimes leaves a day's cell empty (read as 0), so the
+ * index keeps the highest total seen so far for every row of each borough instead of the raw value. For all other
+ * metrics the latest value is simply the value of the borough's last row on or before the day.
+ *
+ * The index is built once, when its table is built, and never changes afterwards. A table built from an earlier
+ * table plus rows for later days carries the earlier running totals on instead of starting again.
+ */
+public class BoroughSummaryIndex
+{
+    private final CovidDataTable table;
+    // runningTotals[metric][borough][i] is the highest value of a cumulative metric over the borough's first i + 1 rows
+    private final int[][][] runningTotals;
+
+    /**
+     * Builds the summary of a table.
+     *
+     * @param table the date-sorted table to summarise
+     */
+    public BoroughSummaryIndex(CovidDataTable table)
+    {
+        this(null, table);
+    }
+
+    /**
+     * Builds the summary of a table that holds every row of an earlier table followed by later rows. The running
+     * totals of the earlier table are carried on in the spare room at the end of its arrays, which the earlier index
+     * never reads, so only the later rows are read.
+     *
+     * @param base the index of the earlier table, or null to summarise every row
+     * @param table the date-sorted table to summarise
+     */
+    BoroughSummaryIndex(BoroughSummaryIndex base, CovidDataTable table)
+    {
+        this.table = table;
+        CovidMetric[] metrics = CovidMetric.values();
+        int boroughCount = table.getBoroughCount();
+        runningTotals = new int[metrics.length][][];
+
+        for (CovidMetric metric : metrics)
+        {
+            if (!metric.isCumulative())
+            {
+                continue;
+            }
+            int[] values = table.getColumn(metric);
+            int[][] metricTotals = base == null
+                ? new int[boroughCount][] : Arrays.copyOf(base.runningTotals[metric.ordinal()], boroughCount);
+            for (int borough = 0; borough < boroughCount; borough++)
+            {
+                int first = base == null || borough >= base.table.getBoroughCount() ? 0 : base.table.getBoroughRowCount(borough);
+                int size = table.getBoroughRowCount(borough);
+                if (first == size)
+                {
+                    continue;
+                }
+                int[] rows = table.getBoroughRows(borough);
+                int[] totals = CovidDataTable.withRoom(first == 0 ? null : metricTotals[borough], size);
+                int highest = first == 0 ? 0 : totals[first - 1];
+                for (int i = first; i < size; i++)
+                {
+                    highest = Math.max(highest, values[rows[i]]);
+                    totals[i] = highest;
+                }
+                metricTotals[borough] = totals;
+            }
+            runningTotals[metric.ordinal()] = metricTotals;
+        }
+    }
+
+    /**
+     * @param metric the metric to look up
+     * @param boroughId the id of the borough
+     * @param epochDay the day to look up, as an epoch day
+     * @return the latest value of the metric on or before the day, or 0 if the borough has no rows that early
+     */
+    public int asOf(CovidMetric metric, int boroughId, int epochDay)
+    {
+        // The number of the borough's rows on or before the day
+        int count = table.firstBoroughRowAfter(boroughId, epochDay);
+        if (count == 0)
+        {
+            return 0;
+        }
+        if (metric.isCumulative())
+        {
+            return runningTotals[metric.ordinal()][boroughId][count - 1];
+        }
+        return table.getValue(metric, table.getBoroughRows(boroughId)[count - 1]);
+    }
+}
@@ -0,0 +1,248 @@
+import java.util.Arrays;
+
+/**
+ * The ChoroplethClassifier class splits the boroughs into colour classes for the map.
+ * The class limits ("breaks") can be fixed thresholds, or worked out from the values themselves with quantiles
+ * (the same number of boroughs in every class) or Jenks natural breaks (classes that group similar values together).
+ *
+ * With k classes there are k - 1 breaks in increasing order. A value belongs to the class equal to the number of
+ * breaks it is greater than, so class 0 holds the lowest values.
+ */
+public class ChoroplethClassifier
+{
+    /**
+     * The ways the breaks can be chosen.
+     */
+    public enum Method
+    {
+        FIXED("Fixed thresholds"),
+        QUANTILE("Quantiles"),
+        JENKS("Natural breaks (Jenks)");
+
+        private final String displayName;
+
+        Method(String displayName)
+        {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName()
+        {
+            return displayName;
+        }
+    }
+
+    private final Method method;
+    private final int classCount;
+    private final double[] fixedBreaks;
+
+    /**
+     * Creates a classifier that works its breaks out from the values.
+     *
+     * @param method QUANTILE or JENKS
+     * @param classCount the number of classes, at least 2
+     */
+    public ChoroplethClassifier(Method method, int classCount)
+    {
+        this(method, classCount, null);
+    }
+
+    /**
+     * Creates a classifier.
+     *
+     * @param method how to choose the breaks
+     * @param classCount the number of classes, at least 2
+     * @param fixedBreaks the classCount - 1 breaks to use with FIXED, in increasing order. Ignored by the other methods
+     */
+    public ChoroplethClassifier(Method method, int classCount, double[] fixedBreaks)
+    {
+        if (classCount < 2)
+        {
+            throw new IllegalArgumentException("A map needs at least 2 classes");
+        }
+        if (method == Method.FIXED && (fixedBreaks == null || fixedBreaks.length != classCount - 1))
+        {
+            throw new IllegalArgumentException("Fixed thresholds need exactly " + (classCount - 1) + " breaks");
+        }
+        this.method = method;
+        this.classCount = classCount;
+        this.fixedBreaks = fixedBreaks == null ? null : fixedBreaks.clone();
+    }
+
+    public Method getMethod()
+    {
+        return method;
+    }
+
+    public int getClassCount()
+    {
+        return classCount;
+    }
+
+    /**
+     * Works out the breaks for a set of values.
+     *
+     * @param values the values to classify. NaN values are left out
+     * @return the classCount - 1 breaks, in increasing order
+     */
+    public double[] computeBreaks(double[] values)
+    {
+        if (method == Method.FIXED)
+        {
+            return fixedBreaks.clone();
+        }
+        double[] sorted = Arrays.stream(values).filter(value -> !Double.isNaN(value)).sorted().toArray();
+        if (sorted.length == 0)
+        {
+            return new double[classCount - 1];
+        }
+        return method == Method.QUANTILE ? quantileBreaks(sorted) : jenksBreaks(sorted);
+    }
+
+    /**
+     * Puts every value into a class.
+     *
+     * @param values the values to classify
+     * @param breaks the breaks returned by computeBreaks()
+     * @return the class of every value, from 0 for the lowest values to classCount - 1, or -1 for NaN values
+     */
+    public static int[] classify(double[] values, double[] breaks)
+    {
+        int[] classes = new int[values.length];
+        for (int i = 0; i < values.length; i++)
+        {
+            classes[i] = classify(values[i], breaks);
+        }
+        return classes;
+    }
+
+    /**
+     * @param value the value to classify
+     * @param breaks the breaks returned by computeBreaks()
+     * @return the class of the value, or -1 if the value is NaN
+     */
+    public static int classify(double value, double[] breaks)
+    {
+        if (Double.isNaN(value))
+        {
+            return -1;
+        }
+        int c = 0;
+        while (c < breaks.length && value > breaks[c])
+        {
+            c++;
+        }
+        return c;
+    }
+
+    /**
+     * Works out the value the map shows for each borough over a date range. Running totals (such as total deaths)
+     * use the latest total on the last day of the range, daily counts (such as new cases) are added up over the
+     * range, and mobility measures are averaged over the range. Every value comes from the table's indexes, so this
+     * costs a few lookups per borough.
+     *
+     * @param table the dataset
+     * @param metric the metric to show
+     * @param startDay the first day of the range, as an epoch day
+     * @param endDay the last day of the range, as an epoch day
+     * @return the value of each borough, indexed by borough id. Mobility averages are NaN if the borough has no rows
+     */
+    public static double[] boroughValues(CovidDataTable table, CovidMetric metric, int startDay, int endDay)
+    {
+        double[] values = new double[table.getBoroughCount()];
+        for (int borough = 0; borough < values.length; borough++)
+        {
+            if (metric.isCumulative())
+            {
+                values[borough] = table.getBoroughSummary().asOf(metric, borough, endDay);
+            }
+            else if (metric == CovidMetric.NEW_CASES || metric == CovidMetric.NEW_DEATHS)
+            {
+                values[borough] = table.getPrefixSums().sum(metric, borough, startDay, endDay);
+            }
+            else
+            {
+                values[borough] = table.getPrefixSums().mean(metric, borough, startDay, endDay);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Breaks at evenly spaced positions of the sorted values.
+     */
+    private double[] quantileBreaks(double[] sorted)
+    {
+        double[] breaks = new double[classCount - 1];
+        for (int b = 1; b < classCount; b++)
+        {
+            // Linear interpolation between the two closest ranks
+            double position = (double) b / classCount * (sorted.length - 1);
+            int lower = (int) Math.floor(position);
+            int upper = Math.min(lower + 1, sorted.length - 1);
+            breaks[b - 1] = sorted[lower] + (position - lower) * (sorted[upper] - sorted[lower]);
+        }
+        return breaks;
+    }
+
+    /**
+     * Jenks natural breaks, found with Fisher's dynamic programme: the split of the sorted values into classes
+     * with the smallest total squared distance of each value from its class mean. Each break is the highest value
+     * of a class.
+     */
+    private double[] jenksBreaks(double[] sorted)
+    {
+        int n = sorted.length;
+        int k = Math.min(classCount, n);
+        double[] prefix = new double[n + 1];
+        double[] prefixSquares = new double[n + 1];
+        for (int i = 0; i < n; i++)
+        {
+            prefix[i + 1] = prefix[i] + sorted[i];
+            prefixSquares[i + 1] = prefixSquares[i] + sorted[i] * sorted[i];
+        }
+
+        // cost[c][i]: smallest cost of putting the first i values into c + 1 classes; start[c][i]: where the last class starts
+        double[][] cost = new double[k][n + 1];
+        int[][] start = new int[k][n + 1];
+        for (int i = 1; i <= n; i++)
+        {
+            cost[0][i] = squaredDeviation(prefix, prefixSquares, 0, i);
+        }
+        for (int c = 1; c < k; c++)
+        {
+            for (int i = c + 1; i <= n; i++)
+            {
+                cost[c][i] = Double.POSITIVE_INFINITY;
+                for (int j = c; j < i; j++)
+                {
+                    double candidate = cost[c - 1][j] + squaredDeviation(prefix, prefixSquares, j, i);
+                    if (candidate < cost[c][i])
+                    {
+                        cost[c][i] = candidate;
+                        start[c][i] = j;
+                    }
+                }
+            }
+        }
+
+        double[] breaks = new double[classCount - 1];
+        Arrays.fill(breaks, sorted[n - 1]);
+        int end = n;
+        for (int c = k - 1; c > 0; c--)
+        {
+            end = start[c][end];
+            breaks[c - 1] = sorted[end - 1];
+        }
+        return breaks;
+    }
+
+    /**
+     * @return the sum of squared distances from their mean of the sorted values from index from up to index to
+     */
+    private static double squaredDeviation(double[] prefix, double[] prefixSquares, int from, int to)
+    {
+        double sum = prefix[to] - prefix[from];
+        return prefixSquares[to] - prefixSquares[from] - sum * sum / (to - from);
+    }
+}
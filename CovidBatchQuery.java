@@ -0,0 +1,246 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * The CovidBatchQuery class answers a batch of queries from the command line, without starting the user interface,
+ * for example in nightly jobs on servers with no display. Queries are read one per line from a file or from standard
+ * input and each answer is written out as soon as it is worked out, as CSV or as one JSON object per line.
+ *
+ * Each line holds up to four fields separated by commas:
+ *
+ *     start date,end date[,borough[,statistics]]
+ *
+ * Dates are yyyy-MM-dd. The borough is a borough name, or ALL or empty for the whole of London. The statistics are
+ * METRIC:FUNCTION pairs separated by spaces or semicolons, such as "NEW_CASES:SUM TOTAL_DEATHS:MAX"; without them the
+ * statistics of the Statistics panel are worked out. Blank lines and lines starting with # are skipped. A line that
+ * cannot be read is reported on standard error and the batch carries on. A dataset given with --data is parsed
+ * without saving a snapshot next to it, unless run with -Dcovid.snapshot=true.
+ *
+ * Usage: java CovidBatchQuery [--format csv|json] [--data dataset.csv] [queries.txt|-]
+ */
+public class CovidBatchQuery
+{
+    /**
+     * The ways answers can be written.
+     */
+    public enum Format
+    {
+        CSV, JSON
+    }
+
+    private final CovidQueryService service;
+    private final Format format;
+    private final Writer out;
+
+    /**
+     * @param service the service to answer the queries
+     * @param format how to write the answers
+     * @param out where to write the answers
+     */
+    public CovidBatchQuery(CovidQueryService service, Format format, Writer out)
+    {
+        this.service = service;
+        this.format = format;
+        this.out = out;
+    }
+
+    /**
+     * Answers every query read from a reader, writing each answer as it goes. The output is flushed whenever the
+     * reader has no more input waiting, so answers to queries typed or piped in one at a time appear straight away.
+     *
+     * @param in the queries, one per line
+     * @return the number of lines that could not be answered
+     * @throws IOException if the queries cannot be read or the answers cannot be written
+     */
+    public int run(BufferedReader in) throws IOException
+    {
+        if (format == Format.CSV)
+        {
+            out.write("start_date,end_date,borough,metric,function,value,rows\n");
+        }
+        int failures = 0;
+        int lineNumber = 0;
+        String line;
+        while ((line = in.readLine()) != null)
+        {
+            lineNumber++;
+            String trimmed = line.trim();
+            if (!trimmed.isEmpty() && !trimmed.startsWith("#"))
+            {
+                try
+                {
+                    write(service.run(parseQuery(trimmed)));
+                }
+                catch (IllegalArgumentException e)
+                {
+                    failures++;
+                    System.err.println("Line " + lineNumber + ": " + e.getMessage());
+                }
+            }
+            if (!in.ready())
+            {
+                out.flush();
+            }
+        }
+        out.flush();
+        return failures;
+    }
+
+    /**
+     * Reads one query line.
+     *
+     * @param line the fields of the query, separated by commas
+     * @return the query
+     * @throws IllegalArgumentException if the line is not a valid query
+     */
+    public AggregationQuery parseQuery(String line)
+    {
+        String[] fields = line.split(",", 4);
+        if (fields.length < 2)
+        {
+            throw new IllegalArgumentException("Expected start date,end date[,borough[,statistics]]");
+        }
+        int startDay = CovidQueryService.parseDay(fields[0]);
+        int endDay = CovidQueryService.parseDay(fields[1]);
+        if (endDay < startDay)
+        {
+            throw new IllegalArgumentException("The range ends before it starts");
+        }
+        int boroughId = service.boroughId(fields.length > 2 ? fields[2] : "");
+        if (fields.length < 4 || fields[3].trim().isEmpty())
+        {
+            return CovidQueryService.panelStatistics(startDay, endDay, boroughId);
+        }
+        return CovidQueryService.addStatistics(new AggregationQuery(startDay, endDay, boroughId), fields[3]);
+    }
+
+    /**
+     * Writes the answer to one query.
+     */
+    private void write(AggregationResult result) throws IOException
+    {
+        if (format == Format.JSON)
+        {
+            out.write(service.toJson(result));
+            out.write('\n');
+            return;
+        }
+        AggregationQuery query = result.getQuery();
+        String prefix = EpochDays.format(query.getStartDay()) + "," + EpochDays.format(query.getEndDay()) + ","
+            + csvField(service.boroughName(query.getBoroughId())) + ",";
+        for (int i = 0; i < query.size(); i++)
+        {
+            double value = result.getValue(i);
+            out.write(prefix + query.getMetric(i) + "," + query.getFunction(i) + ","
+                + (Double.isNaN(value) ? "" : CovidQueryService.formatNumber(value)) + "," + result.getRowCount() + "\n");
+        }
+    }
+
+    /**
+     * @return the text, quoted if it holds a comma or a quote
+     */
+    private static String csvField(String text)
+    {
+        if (text.indexOf(',') < 0 && text.indexOf('"') < 0)
+        {
+            return text;
+        }
+        return '"' + text.replace("\"", "\"\"") + '"';
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        Format format = Format.CSV;
+        File dataFile = null;
+        String queries = "-";
+        for (int i = 0; i < args.length; i++)
+        {
+            if (args[i].equals("--format") && i + 1 < args.length)
+            {
+                try
+                {
+                    format = Format.valueOf(args[++i].toUpperCase(Locale.ROOT));
+                }
+                catch (IllegalArgumentException e)
+                {
+                    usage("Unknown format \"" + args[i] + "\"");
+                }
+            }
+            else if (args[i].equals("--data") && i + 1 < args.length)
+            {
+                dataFile = new File(args[++i]);
+                if (!dataFile.isFile())
+                {
+                    usage("Cannot find the dataset " + dataFile);
+                }
+            }
+            else if (args[i].startsWith("--"))
+            {
+                usage("Unknown option " + args[i]);
+            }
+            else
+            {
+                queries = args[i];
+            }
+        }
+
+        InputStream in = System.in;
+        if (!queries.equals("-"))
+        {
+            try
+            {
+                in = new FileInputStream(queries);
+            }
+            catch (FileNotFoundException e)
+            {
+                usage("Cannot read the queries " + e.getMessage());
+                return;
+            }
+        }
+
+        // The answers go to standard output, so the loader must not print its progress there
+        PrintStream results = System.out;
+        System.setProperty("covid.quiet", "true");
+        // A dataset named on the command line is often a one-off, so no snapshot is left next to it unless asked for
+        if (dataFile != null && System.getProperty("covid.snapshot") == null)
+        {
+            System.setProperty("covid.snapshot", "false");
+        }
+        CovidDataTable table = dataFile == null
+            ? CovidDataRepository.getInstance().getTable()
+            : new CovidDataLoader().loadTable(dataFile);
+
+        Writer out = new BufferedWriter(new OutputStreamWriter(results, StandardCharsets.UTF_8), 1 << 16);
+        int failures;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16))
+        {
+            failures = new CovidBatchQuery(new CovidQueryService(table), format, out).run(reader);
+        }
+        if (failures > 0)
+        {
+            System.err.println(failures + " queries could not be answered");
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Reports a mistake in the command line, with how to use it, and exits.
+     */
+    private static void usage(String problem)
+    {
+        System.err.println(problem);
+        System.err.println("Usage: java CovidBatchQuery [--format csv|json] [--data dataset.csv] [queries.txt|-]");
+        System.exit(1);
+    }
+}
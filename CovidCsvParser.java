@@ -0,0 +1,547 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The CovidCsvParser class reads the Covid London csv file straight from bytes. It only knows the fixed layout of
+ * this dataset: a date, a borough name and ten whole-number columns.
+ *
+ * Each field is copied into one reusable buffer, numbers are worked out from the digits in that buffer, and dates
+ * and borough names are looked up in dictionaries keyed by their bytes. A date or borough is only turned into an
+ * object the first time it is seen, so once the dictionaries are warm, parsing a row creates no garbage.
+ *
+ * Fields may be quoted, with "" standing for a quote inside a quoted field. An empty number field counts as 0.
+ *
+ * Rows can be pushed to a CovidRowVisitor with parse(), or pulled one at a time with nextRow().
+ *
+ * The parser keeps track of how many bytes it has read up to the end of the last row it handed over, so that rows
+ * appended to the file later can be read on their own, starting from that offset. When only complete rows are
+ * wanted, the bytes after the last line break read so far are held back from the tokenizer until the line break
+ * that ends them arrives, so a row that is still being written is never parsed.
+ */
+public class CovidCsvParser
+{
+    private static final int COLUMN_COUNT = 2 + CovidMetric.values().length;
+
+    private final InputStream in;
+    private final boolean hasHeader;
+    private final boolean completeRowsOnly;
+    private byte[] buffer = new byte[1 << 16];
+    private int bufferLength; // The number of bytes read into the buffer
+    private int bufferLimit; // The number of bytes of the buffer the tokenizer may read
+    private int bufferPosition;
+    private long bufferStart; // The offset in the data of the first byte of the buffer
+    private long rowsEnd; // The offset in the data just after the last complete row
+
+    private byte[] field = new byte[64]; // The bytes of the field being read
+    private int fieldLength;
+
+    private final ByteDictionary dates = new ByteDictionary();
+    private int[] dateEpochDays = new int[64]; // The epoch day of each entry of the dates dictionary
+
+    private String[] dateTexts = new String[64]; // The text of each entry of the dates dictionary
+    private final ByteDictionary boroughs = new ByteDictionary();
+    private String[] boroughNames = new String[64]; // The name of each entry of the boroughs dictionary
+
+    // The last row read
+    private int dateId;
+    private int epochDay;
+    private String borough;
+    private final int[] values = new int[CovidMetric.values().length];
+
+    private boolean headerSkipped;
+    private boolean finished;
+    private int lineNumber;
+
+    /**
+     * @param in the csv data, starting with the row of column titles. The parser does not close the stream
+     */
+    public CovidCsvParser(InputStream in)
+    {
+        this(in, true, false);
+    }
+
+    /**
+     * @param in the csv data. The parser does not close the stream
+     * @param hasHeader true if the data starts with a row of column titles to skip
+     * @param completeRowsOnly true to leave out a last row that is not followed by a line break, because it may
+     * still be being written
+     */
+    public CovidCsvParser(InputStream in, boolean hasHeader, boolean completeRowsOnly)
+    {
+        this.in = in;
+        this.hasHeader = hasHeader;
+        this.completeRowsOnly = completeRowsOnly;
+    }
+
+    /**
+     * @return the number of bytes from the start of the data up to the end of the last row that was handed to the
+     * visitor (or skipped, for blank lines and the column titles)
+     */
+    public long getRowsEnd()
+    {
+        return rowsEnd;
+    }
+
+    /**
+     * Reads every row of the data, skipping the column titles if there are any, and hands each one to a visitor.
+     *
+     * @param visitor the visitor to hand the rows to
+     * @return the number of rows handed to the visitor
+     * @throws IOException if the data cannot be read
+     * @throws NumberFormatException if a number field holds something other than a whole number
+     */
+    public int parse(CovidRowVisitor visitor) throws IOException
+    {
+        int rows = 0;
+        while (nextRow())
+        {
+            rows++;
+            if (!visitor.visit(epochDay, borough, values))
+            {
+                break;
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Reads the next row of the data, skipping the column titles if there are any. The row can then be read with
+     * getEpochDay(), getDate(), getBorough() and getValues(), until the next call.
+     *
+     * @return true if a row was read, or false at the end of the data
+     * @throws IOException if the data cannot be read
+     * @throws NumberFormatException if a number field holds something other than a whole number
+     */
+    public boolean nextRow() throws IOException
+    {
+        if (finished)
+        {
+            return false;
+        }
+        // Skip the first row (column headers)
+        if (!headerSkipped)
+        {
+            headerSkipped = true;
+            if (hasHeader && !skipRow())
+            {
+                finished = true;
+                return false;
+            }
+        }
+        while (true)
+        {
+            int end = readField();
+            if (fieldLength == 0 && end != ',')
+            {
+                // A blank line, or the end of the data
+                lineNumber++;
+                if (end == -1)
+                {
+                    finished = true;
+                    return false;
+                }
+                rowsEnd = position();
+                continue;
+            }
+
+            Arrays.fill(values, 0);
+            for (int column = 0; ; column++)
+            {
+                if (column == 0)
+                {
+                    dateId = toDateId();
+                    epochDay = dateEpochDays[dateId];
+                }
+                else if (column == 1)
+                {
+                    borough = toBorough();
+                }
+                else if (column < COLUMN_COUNT)
+                {
+                    values[column - 2] = toInt();
+                }
+                if (end != ',')
+                {
+                    break;
+                }
+                end = readField();
+            }
+            lineNumber++;
+            if (end == -1)
+            {
+                finished = true;
+            }
+            rowsEnd = position();
+            return true;
+        }
+    }
+
+    /**
+     * @return the date of the last row read, as an epoch day
+     */
+    public int getEpochDay()
+    {
+        return epochDay;
+    }
+
+    /**
+     * @return the date of the last row read, as it was written in the data. The same String object is returned for
+     * every row with the same date
+     */
+    public String getDate()
+    {
+        return dateTexts[dateId];
+    }
+
+    /**
+     * @return the name of the borough of the last row read. The same String object is returned for every row of a
+     * borough
+     */
+    public String getBorough()
+    {
+        return borough;
+    }
+
+    /**
+     * @return the value of every metric of the last row read, in CovidMetric order. The same array is returned for
+     * every row, so it must be copied to be kept
+     */
+    public int[] getValues()
+    {
+        return values;
+    }
+
+    /**
+     * Reads past the end of the current row.
+     *
+     * @return false if the data ended before a row was found
+     */
+    private boolean skipRow() throws IOException
+    {
+        int end;
+        do
+        {
+            end = readField();
+        }
+        while (end == ',');
+        lineNumber++;
+        rowsEnd = position();
+        return end != -1 || fieldLength > 0;
+    }
+
+    /**
+     * Reads one field into the field buffer, removing any quotes.
+     *
+     * @return ',' if the field was followed by another field, '\n' if it ended the row, or -1 if it ended the data
+     */
+    private int readField() throws IOException
+    {
+        fieldLength = 0;
+        int b = next();
+        if (b == '"')
+        {
+            while (true)
+            {
+                b = next();
+                if (b == -1)
+                {
+                    return -1;
+                }
+                if (b == '"')
+                {
+                    b = next();
+                    if (b != '"')
+                    {
+                        break;
+                    }
+                }
+                append(b);
+            }
+            // Skip anything between the closing quote and the end of the field
+            while (b != ',' && b != '\n' && b != -1)
+            {
+                b = next();
+            }
+            return b;
+        }
+        while (b != ',' && b != '\n' && b != -1)
+        {
+            if (b != '\r')
+            {
+                append(b);
+            }
+            b = next();
+        }
+        return b;
+    }
+
+    private void append(int b)
+    {
+        if (fieldLength == field.length)
+        {
+            field = Arrays.copyOf(field, field.length * 2);
+        }
+        field[fieldLength++] = (byte) b;
+    }
+
+    /**
+     * @return the next byte of the data, or -1 at the end of the data
+     */
+    private int next() throws IOException
+    {
+        if (bufferPosition == bufferLimit && !fill())
+        {
+            return -1;
+        }
+        return buffer[bufferPosition++] & 0xFF;
+    }
+
+    /**
+     * Reads more of the data into the buffer, keeping any bytes that were read but held back. When only complete
+     * rows are wanted, the tokenizer may only read up to the last line break in the buffer, and bytes after the
+     * last line break of the data are never handed to it.
+     *
+     * @return false if there is nothing more for the tokenizer to read
+     */
+    private boolean fill() throws IOException
+    {
+        int heldBack = bufferLength - bufferLimit;
+        System.arraycopy(buffer, bufferLimit, buffer, 0, heldBack);
+        bufferStart += bufferLimit;
+        bufferLength = heldBack;
+        bufferLimit = 0;
+        bufferPosition = 0;
+        while (true)
+        {
+            if (bufferLength == buffer.length)
+            {
+                // A single row longer than the buffer
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            int read = in.read(buffer, bufferLength, buffer.length - bufferLength);
+            if (read <= 0)
+            {
+                if (!completeRowsOnly)
+                {
+                    bufferLimit = bufferLength;
+                }
+                return bufferLimit > 0;
+            }
+            int start = bufferLength;
+            bufferLength += read;
+            if (!completeRowsOnly)
+            {
+                bufferLimit = bufferLength;
+                return true;
+            }
+            for (int i = bufferLength - 1; i >= start; i--)
+            {
+                if (buffer[i] == '\n')
+                {
+                    bufferLimit = i + 1;
+                    return true;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the offset in the data of the next byte to be read
+     */
+    private long position()
+    {
+        return bufferStart + bufferPosition;
+    }
+
+    /**
+     * Works out the whole number held in the field buffer. An empty or blank field counts as 0.
+     */
+    private int toInt()
+    {
+        int start = 0;
+        int end = fieldLength;
+        while (start < end && field[start] <= ' ')
+        {
+            start++;
+        }
+        while (end > start && field[end - 1] <= ' ')
+        {
+            end--;
+        }
+        if (start == end)
+        {
+            return 0;
+        }
+        boolean negative = field[start] == '-';
+        if (negative || field[start] == '+')
+        {
+            start++;
+        }
+        if (start == end)
+        {
+            throw badNumber();
+        }
+        long value = 0;
+        for (int i = start; i < end; i++)
+        {
+            int digit = field[i] - '0';
+            if (digit < 0 || digit > 9)
+            {
+                throw badNumber();
+            }
+            value = value * 10 + digit;
+            if (value > Integer.MAX_VALUE + 1L)
+            {
+                throw badNumber();
+            }
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE)
+        {
+            throw badNumber();
+        }
+        return (int) value;
+    }
+
+    private NumberFormatException badNumber()
+    {
+        return new NumberFormatException("Line " + (lineNumber + 1) + ": not a whole number: \""
+            + new String(field, 0, fieldLength, StandardCharsets.UTF_8) + "\"");
+    }
+
+    /**
+     * Looks up the date held in the field buffer, parsing it the first time it is seen.
+     *
+     * @return the id of the date in the dates dictionary
+     */
+    private int toDateId()
+    {
+        int start = 0;
+        int end = fieldLength;
+        while (start < end && field[start] <= ' ')
+        {
+            start++;
+        }
+        while (end > start && field[end - 1] <= ' ')
+        {
+            end--;
+        }
+        int id = dates.find(field, start, end);
+        if (id < 0)
+        {
+            id = dates.add(field, start, end);
+            if (id == dateEpochDays.length)
+            {
+                dateEpochDays = Arrays.copyOf(dateEpochDays, id * 2);
+                dateTexts = Arrays.copyOf(dateTexts, id * 2);
+            }
+            dateTexts[id] = new String(field, start, end - start, StandardCharsets.US_ASCII);
+            dateEpochDays[id] = EpochDays.parse(field, start, end);
+        }
+        return id;
+    }
+
+    /**
+     * Looks up the borough name held in the field buffer, creating the String the first time it is seen.
+     */
+    private String toBorough()
+    {
+        int id = boroughs.find(field, 0, fieldLength);
+        if (id < 0)
+        {
+            id = boroughs.add(field, 0, fieldLength);
+            if (id == boroughNames.length)
+            {
+                boroughNames = Arrays.copyOf(boroughNames, id * 2);
+            }
+            boroughNames[id] = new String(field, 0, fieldLength, StandardCharsets.UTF_8);
+        }
+        return boroughNames[id];
+    }
+
+    /**
+     * The ByteDictionary class gives each different byte sequence it is handed a small id, starting from 0.
+     * It is an open addressing hash table, so looking up a sequence already in the dictionary creates no objects.
+     */
+    private static class ByteDictionary
+    {
+        private byte[][] keys = new byte[64][];
+        private int[] hashes = new int[64];
+        private int[] ids = new int[64];
+        private int size;
+
+        /**
+         * @return the id of the bytes from start up to end, or -1 if they are not in the dictionary
+         */
+        int find(byte[] bytes, int start, int end)
+        {
+            int hash = hash(bytes, start, end);
+            int mask = keys.length - 1;
+            for (int slot = hash & mask; keys[slot] != null; slot = (slot + 1) & mask)
+            {
+                if (hashes[slot] == hash && Arrays.equals(keys[slot], 0, keys[slot].length, bytes, start, end))
+                {
+                    return ids[slot];
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Adds bytes that are not yet in the dictionary.
+         *
+         * @return the new id of the bytes
+         */
+        int add(byte[] bytes, int start, int end)
+        {
+            if ((size + 1) * 2 > keys.length)
+            {
+                resize();
+            }
+            insert(Arrays.copyOfRange(bytes, start, end), hash(bytes, start, end), size);
+            return size++;
+        }
+
+        private void insert(byte[] key, int hash, int id)
+        {
+            int mask = keys.length - 1;
+            int slot = hash & mask;
+            while (keys[slot] != null)
+            {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            hashes[slot] = hash;
+            ids[slot] = id;
+        }
+
+        private void resize()
+        {
+            byte[][] oldKeys = keys;
+            int[] oldHashes = hashes;
+            int[] oldIds = ids;
+            keys = new byte[oldKeys.length * 2][];
+            hashes = new int[oldKeys.length * 2];
+            ids = new int[oldKeys.length * 2];
+            for (int slot = 0; slot < oldKeys.length; slot++)
+            {
+                if (oldKeys[slot] != null)
+                {
+                    insert(oldKeys[slot], oldHashes[slot], oldIds[slot]);
+                }
+            }
+        }
+
+        private static int hash(byte[] bytes, int start, int end)
+        {
+            int hash = 1;
+            for (int i = start; i < end; i++)
+            {
+                hash = 31 * hash + bytes[i];
+            }
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
@@ -0,0 +1,325 @@
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * The CovidDataGenerator class writes synthetic datasets in the same csv layout as covid_london.csv, for testing the
+ * application at sizes far beyond the shipped file.
+ *
+ * Every region gets a population, a mobility profile and a case rate of its own. Cases follow a few epidemic waves
+ * shared by all regions, with day-to-day noise on top. Deaths are a small fraction of the cases of two weeks earlier.
+ * Mobility drops while lockdowns are in force and drifts back afterwards, with parks rising in the summer.
+ * Total cases and total deaths are running totals of the daily counts, so they never go down.
+ *
+ * The rows are written day by day, one row per region each day, straight to the output. Only a few numbers per region
+ * are held in memory, so files of any size can be written. The same seed always gives the same file.
+ */
+public class CovidDataGenerator
+{
+    private static final String HEADER = "date,borough,retail_and_recreation,grocery_and_pharmacy,parks,"
+        + "transit_stations,workplaces,residential,new_cases,total_cases,new_deaths,total_deaths\n";
+
+    // The London boroughs name the first regions. Later regions reuse the names with a number added
+    private static final String[] BOROUGHS = {"Barking And Dagenham", "Barnet", "Bexley", "Brent", "Bromley", "Camden",
+        "City Of London", "Croydon", "Ealing", "Enfield", "Greenwich", "Hackney", "Hammersmith And Fulham", "Haringey",
+        "Harrow", "Havering", "Hillingdon", "Hounslow", "Islington", "Kensington And Chelsea", "Kingston Upon Thames",
+        "Lambeth", "Lewisham", "Merton", "Newham", "Redbridge", "Richmond Upon Thames", "Southwark", "Sutton",
+        "Tower Hamlets", "Waltham Forest", "Wandsworth", "Westminster"};
+
+    // The epidemic waves: the day of the peak, counted from the first day, how wide the wave is in days, and the
+    // new cases per 100,000 people per day at the peak
+    private static final double[][] WAVES = {{60, 25, 8}, {330, 40, 45}, {680, 30, 180}, {800, 60, 40}};
+
+    // Mobility while a lockdown is in force, for retail, grocery, parks, transit, workplaces and residential
+    private static final double[] LOCKDOWN_MOBILITY = {-75, -30, -20, -70, -55, 22};
+    private static final double[] NORMAL_MOBILITY = {-10, 2, 10, -20, -18, 4};
+    private static final int[][] LOCKDOWNS = {{50, 140}, {275, 300}, {330, 420}};
+
+    private static final int DEATH_DELAY = 14; // Days from a case to a death
+    private static final double DEATH_RATE = 0.01; // The share of cases that lead to a death
+
+    private final int regions;
+    private final int days;
+    private final int startDay;
+    private final long seed;
+
+    /**
+     * @param regions the number of regions, at least 1
+     * @param days the number of days, at least 1
+     * @param startDay the first day, as an epoch day
+     * @param seed the seed of the random numbers
+     */
+    public CovidDataGenerator(int regions, int days, int startDay, long seed)
+    {
+        if (regions < 1 || days < 1)
+        {
+            throw new IllegalArgumentException("A dataset needs at least one region and one day");
+        }
+        this.regions = regions;
+        this.days = days;
+        this.startDay = startDay;
+        this.seed = seed;
+    }
+
+    /**
+     * @return the name of a region. The first 33 are the London boroughs
+     */
+    public static String regionName(int region)
+    {
+        String name = BOROUGHS[region % BOROUGHS.length];
+        return region < BOROUGHS.length ? name : name + " " + (region / BOROUGHS.length);
+    }
+
+    /**
+     * Writes the dataset to a file.
+     *
+     * @param csvFile the file to write
+     * @return the number of rows written, not counting the column titles
+     * @throws IOException if the file cannot be written
+     */
+    public long write(File csvFile) throws IOException
+    {
+        try (OutputStream out = new FileOutputStream(csvFile))
+        {
+            return write(out);
+        }
+    }
+
+    /**
+     * Writes the dataset to a stream. The stream is flushed but not closed.
+     *
+     * @param out the stream to write to
+     * @return the number of rows written, not counting the column titles
+     * @throws IOException if the stream cannot be written
+     */
+    public long write(OutputStream out) throws IOException
+    {
+        Random random = new Random(seed);
+        RowWriter writer = new RowWriter(new BufferedOutputStream(out, 1 << 20));
+        writer.writeAscii(HEADER);
+
+        // What makes each region different, and each region's running totals
+        byte[][] names = new byte[regions][];
+        double[] population = new double[regions];
+        double[] caseFactor = new double[regions];
+        double[][] mobilityOffset = new double[regions][6];
+        long[] totalCases = new long[regions];
+        long[] totalDeaths = new long[regions];
+        double[] pendingDeaths = new double[regions];
+        int[][] recentCases = new int[regions][DEATH_DELAY]; // A ring of the new cases of the last DEATH_DELAY days
+        for (int r = 0; r < regions; r++)
+        {
+            names[r] = regionName(r).getBytes(StandardCharsets.UTF_8);
+            population[r] = 150_000 + random.nextDouble() * 250_000;
+            caseFactor[r] = Math.exp(random.nextGaussian() * 0.25);
+            for (int m = 0; m < 6; m++)
+            {
+                mobilityOffset[r][m] = random.nextGaussian() * 6;
+            }
+        }
+
+        int[] values = new int[CovidMetric.values().length];
+        long rows = 0;
+        for (int day = 0; day < days; day++)
+        {
+            int epochDay = startDay + day;
+            byte[] date = EpochDays.format(epochDay).getBytes(StandardCharsets.US_ASCII);
+            double caseRate = caseRate(day);
+            double lockdown = lockdown(day);
+            int dayOfYear = epochDay - EpochDays.firstDayOfMonth(Math.floorDiv(EpochDays.monthOf(epochDay), 12) * 12) + 1;
+            double summer = Math.sin(2 * Math.PI * (dayOfYear - 100) / 365.0);
+            // 1970-01-01 was a Thursday, so counting days of the week from Monday, Saturday and Sunday are 5 and 6
+            boolean weekend = Math.floorMod(epochDay + 3, 7) >= 5;
+
+            for (int r = 0; r < regions; r++)
+            {
+                for (int m = 0; m < 6; m++)
+                {
+                    double mobility = NORMAL_MOBILITY[m] + lockdown * (LOCKDOWN_MOBILITY[m] - NORMAL_MOBILITY[m])
+                        + mobilityOffset[r][m] + random.nextGaussian() * 5;
+                    if (m == 2)
+                    {
+                        // Parks fill up in the summer
+                        mobility += 35 * summer + random.nextGaussian() * 15;
+                    }
+                    else if (m == 4 && weekend)
+                    {
+                        mobility -= 10;
+                    }
+                    values[m] = (int) Math.round(mobility);
+                }
+
+                // Daily cases: the expected count with some extra spread, then Poisson noise
+                double expected = caseRate * caseFactor[r] * population[r] / 100_000 * Math.exp(random.nextGaussian() * 0.2);
+                int newCases = poisson(random, expected);
+                int slot = day % DEATH_DELAY;
+                int delayedCases = day >= DEATH_DELAY ? recentCases[r][slot] : 0;
+                recentCases[r][slot] = newCases;
+                pendingDeaths[r] += delayedCases * DEATH_RATE;
+                int newDeaths = poisson(random, pendingDeaths[r]);
+                pendingDeaths[r] = Math.max(0, pendingDeaths[r] - newDeaths);
+                totalCases[r] += newCases;
+                totalDeaths[r] += newDeaths;
+
+                values[CovidMetric.NEW_CASES.ordinal()] = newCases;
+                values[CovidMetric.TOTAL_CASES.ordinal()] = (int) Math.min(Integer.MAX_VALUE, totalCases[r]);
+                values[CovidMetric.NEW_DEATHS.ordinal()] = newDeaths;
+                values[CovidMetric.TOTAL_DEATHS.ordinal()] = (int) Math.min(Integer.MAX_VALUE, totalDeaths[r]);
+                writer.writeRow(date, names[r], values);
+                rows++;
+            }
+        }
+        writer.flush();
+        return rows;
+    }
+
+    /**
+     * @return the expected new cases per 100,000 people on a day
+     */
+    private static double caseRate(int day)
+    {
+        double rate = 1;
+        for (double[] wave : WAVES)
+        {
+            double distance = (day - wave[0]) / wave[1];
+            rate += wave[2] * Math.exp(-distance * distance / 2);
+        }
+        return rate;
+    }
+
+    /**
+     * @return how strongly a lockdown holds on a day, from 0 for none to 1 for a full lockdown. Mobility recovers
+     * gradually over the month after a lockdown ends
+     */
+    private static double lockdown(int day)
+    {
+        double strength = 0;
+        for (int[] lockdown : LOCKDOWNS)
+        {
+            if (day >= lockdown[0] && day <= lockdown[1])
+            {
+                return 1;
+            }
+            if (day > lockdown[1])
+            {
+                strength = Math.max(strength, 1 - (day - lockdown[1]) / 30.0);
+            }
+        }
+        return strength;
+    }
+
+    /**
+     * Draws from a Poisson distribution, counting arrivals for small means and using the normal approximation for
+     * large ones.
+     */
+    private static int poisson(Random random, double mean)
+    {
+        if (mean <= 0)
+        {
+            return 0;
+        }
+        if (mean > 30)
+        {
+            return (int) Math.max(0, Math.round(mean + Math.sqrt(mean) * random.nextGaussian()));
+        }
+        double limit = Math.exp(-mean);
+        double product = random.nextDouble();
+        int count = 0;
+        while (product > limit)
+        {
+            product *= random.nextDouble();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * The RowWriter class writes rows straight as bytes, so writing a row creates no objects.
+     */
+    private static class RowWriter
+    {
+        private final OutputStream out;
+        private final byte[] digits = new byte[11];
+
+        RowWriter(OutputStream out)
+        {
+            this.out = out;
+        }
+
+        void writeAscii(String text) throws IOException
+        {
+            out.write(text.getBytes(StandardCharsets.US_ASCII));
+        }
+
+        void writeRow(byte[] date, byte[] name, int[] values) throws IOException
+        {
+            out.write(date);
+            out.write(',');
+            out.write(name);
+            for (int value : values)
+            {
+                out.write(',');
+                writeInt(value);
+            }
+            out.write('\n');
+        }
+
+        private void writeInt(int value) throws IOException
+        {
+            long v = value;
+            if (v < 0)
+            {
+                out.write('-');
+                v = -v;
+            }
+            int position = digits.length;
+            do
+            {
+                digits[--position] = (byte) ('0' + v % 10);
+                v /= 10;
+            }
+            while (v > 0);
+            out.write(digits, position, digits.length - position);
+        }
+
+        void flush() throws IOException
+        {
+            out.flush();
+        }
+    }
+
+    /**
+     * Writes a synthetic dataset.
+     * Usage: java CovidDataGenerator output.csv [regions] [days] [seed] [start date]
+     * Use - as the output to write to standard output. The defaults match the shipped dataset: 33 regions and
+     * 1103 days from 2020-02-03, with seed 1.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 1)
+        {
+            System.err.println("Usage: java CovidDataGenerator output.csv [regions] [days] [seed] [start date]");
+            System.exit(1);
+        }
+        int regions = args.length > 1 ? Integer.parseInt(args[1]) : 33;
+        int days = args.length > 2 ? Integer.parseInt(args[2]) : 1103;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+        int startDay = args.length > 4 ? EpochDays.parse(args[4]) : EpochDays.of(2020, 2, 3);
+
+        CovidDataGenerator generator = new CovidDataGenerator(regions, days, startDay, seed);
+        long rows;
+        if (args[0].equals("-"))
+        {
+            rows = generator.write(System.out);
+        }
+        else
+        {
+            rows = generator.write(new File(args[0]));
+        }
+        System.err.println("Wrote " + rows + " rows");
+    }
+}
@@ -1,79 +1,320 @@
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.time.DateTimeException;
 import java.util.ArrayList;
-import java.util.Arrays;
-import com.opencsv.CSVReader;
 import java.net.URISyntaxException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class CovidDataLoader {
+
+    private long bytesParsed; // How much of the csv file the last loaded table covers
+
+    private static final Metrics.Histogram PARSE_TIME = Metrics.histogram("load.parse");
+    private static final Metrics.Histogram SNAPSHOT_TIME = Metrics.histogram("load.snapshot");
+    private static final Metrics.Histogram TAIL_TIME = Metrics.histogram("load.tail");
+    private static final Metrics.Counter ROWS_PARSED = Metrics.counter("load.rows");
+    private static final Metrics.Counter BYTES_READ = Metrics.counter("load.bytes");
+    private static final Metrics.Counter TAIL_ROWS = Metrics.counter("load.tail.rows");
+    private static final Metrics.Counter TAIL_BYTES = Metrics.counter("load.tail.bytes");
  
     /** 
-     * Return an ArrayList containing the rows in the Covid London data set csv file.
+     * Return an ArrayList containing the rows in the Covid London data set csv file, in file order.
      */
     public ArrayList<CovidData> load() {
-        System.out.println("Begin loading Covid London dataset...");
-        ArrayList<CovidData> records = new ArrayList<CovidData>();
+        File csvFile = findDataFile();
+        if (csvFile == null) {
+            return new ArrayList<CovidData>();
+        }
+        return load(csvFile);
+    }
+
+    /** 
+     * Return an ArrayList containing the rows in a csv file with the Covid London columns, in file order.
+     */
+    public ArrayList<CovidData> load(File csvFile) {
+        try (Stream<CovidData> rows = stream(csvFile)) {
+            return rows.collect(Collectors.toCollection(ArrayList::new));
+        } catch(IOException | UncheckedIOException e){
+            problem("Could not read " + csvFile + ": " + e);
+            return new ArrayList<CovidData>();
+        }
+    }
+
+    /**
+     * Return a stream of the rows in the Covid London data set csv file, in file order. Rows are parsed as the
+     * stream asks for them, so only one row is held in memory at a time. Close the stream when done with it.
+     */
+    public Stream<CovidData> stream() {
+        File csvFile = findDataFile();
+        if (csvFile == null) {
+            return Stream.empty();
+        }
+        try {
+            return stream(csvFile);
+        } catch(IOException e){
+            problem("Could not read " + csvFile + ": " + e);
+            return Stream.empty();
+        }
+    }
+
+    /**
+     * Return a stream of the rows in a csv file with the Covid London columns, in file order. Rows are parsed as the
+     * stream asks for them, and short-circuiting operations stop reading the file early. Closing the stream closes
+     * the file. A read error part way through is thrown as an UncheckedIOException.
+     */
+    public Stream<CovidData> stream(File csvFile) throws IOException {
+        InputStream in = new FileInputStream(csvFile);
+        CovidCsvParser parser = new CovidCsvParser(in);
+        return StreamSupport.stream(new CovidRowSpliterator(parser), false).onClose(() -> {
+            try {
+                in.close();
+            } catch(IOException e){
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Parse a csv file with the Covid London columns, handing each row to a visitor as soon as it is read, without
+     * creating a record per row. Parsing stops early if the visitor returns false. Return the number of rows handed
+     * to the visitor.
+     */
+    public int forEachRow(File csvFile, CovidRowVisitor visitor) throws IOException {
+        try (InputStream in = new FileInputStream(csvFile)) {
+            return new CovidCsvParser(in).parse(visitor);
+        }
+    }
+
+    /**
+     * Return a column-oriented table containing the rows in the Covid London data set csv file.
+     */
+    public CovidDataTable loadTable() {
+        File csvFile = findDataFile();
+        if (csvFile == null) {
+            return new CovidDataTable.Builder().build();
+        }
+        return loadTable(csvFile);
+    }
+
+    /**
+     * Return the Covid London data set csv file, or null if it cannot be found.
+     */
+    public File findDataFile() {
         try{
             URL url = getClass().getResource("covid_london.csv");
-            CSVReader reader = new CSVReader(new FileReader(new File(url.toURI()).getAbsolutePath()));
-            String [] line;
-            //skip the first row (column headers)
-            reader.readNext();
-            while ((line = reader.readNext()) != null) {
-                
-                String date    = line[0];
-                String borough    = line[1];    
-                int retailRecreationGMR    = convertInt(line[2]);    
-                int groceryPharmacyGMR    = convertInt(line[3]);    
-                int parksGMR    = convertInt(line[4]);    
-                int transitGMR    = convertInt(line[5]);    
-                int workplacesGMR    = convertInt(line[6]);    
-                int residentialGMR    = convertInt(line[7]);    
-                int newCases    = convertInt(line[8]);    
-                int totalCases    = convertInt(line[9]);    
-                int newDeaths    = convertInt(line[10]);    
-                int totalDeaths    = convertInt(line[11]);                
-
-                CovidData record = new CovidData(date,borough,retailRecreationGMR,
-                    groceryPharmacyGMR,parksGMR,transitGMR,workplacesGMR,
-                    residentialGMR,newCases,totalCases,newDeaths,totalDeaths);
-                records.add(record);
+            return new File(url.toURI());
+        } catch(URISyntaxException | NullPointerException e){
+            problem("Could not find covid_london.csv next to the application's classes");
+            return null;
+        }
+    }
+
+    /**
+     * Return the number of bytes at the start of the csv file that the last table returned by this loader was made
+     * from. Rows appended to the file after that point can be read with loadTail().
+     */
+    public long getBytesParsed() {
+        return bytesParsed;
+    }
+
+    /**
+     * Return a column-oriented table containing the rows in a csv file with the Covid London columns.
+     * If a binary snapshot of the file is up to date it is opened instead of parsing the file. Otherwise the
+     * file is parsed and a new snapshot is saved next to it, unless the covid.snapshot system property is false.
+     * A last row that does not end with a line break yet is left out, as it may still be being written, and
+     * getBytesParsed() stops before it so that loadTail() reads it once it is finished. A row that cannot be read is
+     * reported and skipped.
+     */
+    public CovidDataTable loadTable(File csvFile) {
+        boolean useSnapshot = !"false".equals(System.getProperty("covid.snapshot"));
+        File snapshotFile = CovidSnapshot.snapshotFileFor(csvFile);
+        // The file as it was before reading began, so that rows appended while it is read are not taken as read
+        long csvLength = csvFile.length();
+        long csvLastModified = csvFile.lastModified();
+        if (useSnapshot) {
+            long start = Metrics.start();
+            Metrics.LoadEvent event = new Metrics.LoadEvent();
+            event.begin();
+            CovidDataTable table = CovidSnapshot.read(snapshotFile, csvFile);
+            if (table != null) {
+                SNAPSHOT_TIME.recordSince(start);
+                commit(event, "snapshot", table.getRowCount(), snapshotFile.length());
+                progress("Number of Loaded Records: " + table.getRowCount() + " (from snapshot)");
+                bytesParsed = csvLength;
+                return table;
             }
-        } catch(IOException | URISyntaxException e){
-            System.out.println("Something Went Wrong?!");
-            e.printStackTrace();
         }
-        System.out.println("Number of Loaded Records: " + records.size());
-        return records;
+
+        progress("Begin loading Covid London dataset...");
+        long start = Metrics.start();
+        Metrics.LoadEvent event = new Metrics.LoadEvent();
+        event.begin();
+        CovidDataTable.Builder builder = new CovidDataTable.Builder(40000);
+        try {
+            bytesParsed = parseRows(csvFile, 0, true, builder);
+        } catch(IOException e){
+            problem("Could not read " + csvFile + ": " + e);
+            return builder.build();
+        }
+        PARSE_TIME.recordSince(start);
+        ROWS_PARSED.add(builder.getRowCount());
+        BYTES_READ.add(bytesParsed);
+        commit(event, "csv", builder.getRowCount(), bytesParsed);
+        progress("Number of Loaded Records: " + builder.getRowCount());
+        CovidDataTable table = builder.build();
+        if (useSnapshot && bytesParsed == csvLength) {
+            saveSnapshot(snapshotFile, table, csvFile, csvLength, csvLastModified);
+        }
+        return table;
     }
 
     /**
+     * Return a table holding the rows of an existing table plus the rows appended to the csv file since the
+     * existing table was loaded. Only the appended bytes are parsed. A last row that does not end with a line
+     * break yet is left for the next call, as it may still be being written. A row that cannot be read is reported
+     * and skipped, so it is not read again by the next call.
      *
-     * @param doubleString the string to be converted to Double type
-     * @return the Double value of the string, or -1.0 if the string is 
-     * either empty or just whitespace
+     * @param table the table loaded from the start of the csv file
+     * @param csvFile the csv file
+     * @param offset the number of bytes of the csv file the table covers, from getBytesParsed()
+     * @return the table with the new rows, or the same table if no complete rows have been added
+     * @throws IOException if the file cannot be read
      */
-    private Double convertDouble(String doubleString){
-        if(doubleString != null && !doubleString.trim().equals("")){
-            return Double.parseDouble(doubleString);
+    public CovidDataTable loadTail(CovidDataTable table, File csvFile, long offset) throws IOException {
+        long start = Metrics.start();
+        Metrics.LoadEvent event = new Metrics.LoadEvent();
+        event.begin();
+        CovidDataTable.Builder builder = new CovidDataTable.Builder(table, 64);
+        long csvLength = csvFile.length();
+        long csvLastModified = csvFile.lastModified();
+        long tailEnd = parseRows(csvFile, offset, false, builder);
+        bytesParsed = tailEnd;
+        int appendedRows = builder.getRowCount() - table.getRowCount();
+        TAIL_TIME.recordSince(start);
+        TAIL_ROWS.add(appendedRows);
+        TAIL_BYTES.add(tailEnd - offset);
+        commit(event, "tail", appendedRows, tailEnd - offset);
+        if (appendedRows == 0) {
+            return table;
+        }
+        progress("Number of Appended Records: " + appendedRows);
+        CovidDataTable appended = builder.build();
+        // Rewriting the snapshot costs time in proportion to the whole table, so it is only rewritten once the
+        // table has grown by an eighth since it was saved. Until then it is out of date and the next start parses
+        // the csv file instead
+        File snapshotFile = CovidSnapshot.snapshotFileFor(csvFile);
+        if (!"false".equals(System.getProperty("covid.snapshot")) && tailEnd == csvLength
+                && appended.getRowCount() - CovidSnapshot.rowCount(snapshotFile) >= appended.getRowCount() / 8) {
+            saveSnapshot(snapshotFile, appended, csvFile, csvLength, csvLastModified);
         }
-        return -1.0;
+        return appended;
     }
 
     /**
-     *
-     * @param intString the string to be converted to Integer type
-     * @return the Integer value of the string, or -1 if the string is 
-     * either empty or just whitespace
+     * Parse the complete rows of a csv file, from a byte offset to the last line break, into a builder. A last row
+     * without a line break is left out, as it may still be being written. A row that cannot be read, such as one
+     * with a bad date or number, is reported and skipped, so it does not hold up the rows after it.
+     * Return the offset just after the last complete row.
      */
-    private Integer convertInt(String intString){
-        if(intString != null && !intString.trim().equals("")){
-            return Integer.parseInt(intString);
+    private static long parseRows(File csvFile, long offset, boolean hasHeader, CovidDataTable.Builder builder) throws IOException {
+        long position = offset;
+        boolean header = hasHeader;
+        while (true) {
+            try (FileInputStream in = new FileInputStream(csvFile)) {
+                FileChannel channel = in.getChannel();
+                channel.position(position);
+                CovidCsvParser parser = new CovidCsvParser(in, header, true);
+                try {
+                    parser.parse((epochDay, borough, values) -> {
+                        builder.addRow(epochDay, builder.boroughId(borough), values);
+                        return true;
+                    });
+                    return position + parser.getRowsEnd();
+                } catch(NumberFormatException | DateTimeException e){
+                    // The rows before the bad one have been added, carry on from the row after it
+                    long rowStart = position + parser.getRowsEnd();
+                    position = nextLineStart(channel, rowStart);
+                    header = false;
+                    problem("Skipped a row of " + csvFile + " at byte " + rowStart + " that could not be read: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the offset just after the first line break at or after an offset of a file, or the length of the
+     * file if there is none.
+     */
+    private static long nextLineStart(FileChannel channel, long offset) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long position = offset;
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                return Math.max(position, offset + 1);
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Print a progress message, unless the covid.quiet system property is true.
+     */
+    static void progress(String message) {
+        if (!Boolean.getBoolean("covid.quiet")) {
+            System.out.println(message);
+        }
+    }
+
+    /**
+     * Print a problem with the data files. When the covid.quiet system property is true it goes to standard error,
+     * so it does not mix with output written to standard output, such as the answers of CovidBatchQuery.
+     */
+    static void problem(String message) {
+        (Boolean.getBoolean("covid.quiet") ? System.err : System.out).println(message);
+    }
+
+    /**
+     * Report a finished load to Flight Recorder, if it is recording.
+     */
+    private static void commit(Metrics.LoadEvent event, String source, long rows, long bytes) {
+        if (event.shouldCommit()) {
+            event.source = source;
+            event.rows = rows;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    /**
+     * Save a snapshot of a table next to its csv file, so the next start does not need to parse the file. The
+     * snapshot is not saved if the file has changed since its length and last modified time were taken before
+     * reading it, as the table may not hold the change.
+     */
+    private void saveSnapshot(File snapshotFile, CovidDataTable table, File csvFile, long csvLength, long csvLastModified) {
+        if (csvFile.length() != csvLength || csvFile.lastModified() != csvLastModified) {
+            return;
+        }
+        try {
+            CovidSnapshot.write(snapshotFile, table, csvLength, csvLastModified);
+        } catch(IOException e){
+            // Without a snapshot the next start just parses the csv file again
+            problem("Could not save snapshot " + snapshotFile + ": " + e);
         }
-        return 0;
     }
 
 }
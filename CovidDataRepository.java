@@ -0,0 +1,212 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The CovidDataRepository class holds the one shared copy of the Covid London dataset for the whole application.
+ * The csv file is read the first time a panel asks for the data, and every panel after that reads the same
+ * in-memory table, so moving between panels does not touch the file again.
+ * The repository is safe to use from several threads. Call reload() or invalidate() when the csv file changes.
+ *
+ * When new daily rows are appended to the end of the csv file, refresh() reads just the appended rows and adds them
+ * to the dataset. startWatching() does this automatically whenever the file changes. Listeners added with
+ * addChangeListener() are told every time the dataset is replaced.
+ */
+public class CovidDataRepository
+{
+    private static final CovidDataRepository INSTANCE = new CovidDataRepository();
+
+    private volatile CovidDataTable table; // The loaded dataset, or null if it has not been loaded yet
+    private File csvFile; // The csv file the dataset was loaded from
+    private long bytesParsed; // How much of the csv file the dataset covers
+    private CovidFileWatcher watcher;
+    private final List<Runnable> changeListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * The repository is shared, use getInstance() instead.
+     */
+    private CovidDataRepository()
+    {
+    }
+
+    /**
+     * Returns the repository shared by every panel of the application.
+     *
+     * @return the shared repository
+     */
+    public static CovidDataRepository getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the dataset, loading the csv file if this is the first call since the repository was created or
+     * invalidated.
+     *
+     * @return the column-oriented table of every row in the dataset
+     */
+    public CovidDataTable getTable()
+    {
+        CovidDataTable current = table;
+        if (current == null)
+        {
+            synchronized (this)
+            {
+                current = table;
+                if (current == null)
+                {
+                    current = readFile();
+                    table = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Reads the csv file again straight away and replaces the table held by the repository.
+     */
+    public void reload()
+    {
+        synchronized (this)
+        {
+            table = readFile();
+        }
+        fireChanged();
+    }
+
+    /**
+     * Drops the table held by the repository. The csv file is read again the next time the data is asked for.
+     */
+    public synchronized void invalidate()
+    {
+        table = null;
+        QueryCache.getShared().invalidate();
+    }
+
+    /**
+     * Adds any rows appended to the csv file since it was last read. Only the appended bytes are parsed. If the file
+     * has become shorter it has been rewritten rather than appended to, so it is read again in full.
+     *
+     * @return true if the dataset changed
+     */
+    public boolean refresh()
+    {
+        synchronized (this)
+        {
+            if (table == null || csvFile == null)
+            {
+                return false;
+            }
+            long length = csvFile.length();
+            if (length == bytesParsed)
+            {
+                return false;
+            }
+            if (length < bytesParsed)
+            {
+                table = readFile();
+            }
+            else
+            {
+                try
+                {
+                    CovidDataLoader loader = new CovidDataLoader();
+                    CovidDataTable appended = loader.loadTail(table, csvFile, bytesParsed);
+                    bytesParsed = loader.getBytesParsed();
+                    if (appended == table)
+                    {
+                        return false;
+                    }
+                    table = appended;
+                }
+                catch (IOException e)
+                {
+                    CovidDataLoader.problem("Could not read the rows appended to " + csvFile + ": " + e);
+                    return false;
+                }
+            }
+        }
+        fireChanged();
+        return true;
+    }
+
+    /**
+     * Starts watching the csv file, calling refresh() whenever it changes. Does nothing if it is already watched.
+     */
+    public synchronized void startWatching()
+    {
+        getTable();
+        if (watcher == null && csvFile != null)
+        {
+            try
+            {
+                watcher = new CovidFileWatcher(csvFile, this::refresh);
+                watcher.start();
+            }
+            catch (IOException e)
+            {
+                CovidDataLoader.problem("Could not watch " + csvFile + ": " + e);
+            }
+        }
+    }
+
+    /**
+     * Stops watching the csv file.
+     */
+    public synchronized void stopWatching()
+    {
+        if (watcher != null)
+        {
+            watcher.stop();
+            watcher = null;
+        }
+    }
+
+    /**
+     * Adds a listener that is run, on the thread that changed the dataset, every time the dataset is replaced
+     * by reload() or refresh().
+     *
+     * @param listener the listener to add
+     */
+    public void addChangeListener(Runnable listener)
+    {
+        changeListeners.add(listener);
+    }
+
+    /**
+     * @param listener the listener to remove
+     */
+    public void removeChangeListener(Runnable listener)
+    {
+        changeListeners.remove(listener);
+    }
+
+    private void fireChanged()
+    {
+        QueryCache.getShared().invalidate();
+        for (Runnable listener : changeListeners)
+        {
+            listener.run();
+        }
+    }
+
+    /**
+     * Loads every row of the csv file. Must be called while holding the repository's lock.
+     *
+     * @return the loaded table
+     */
+    private CovidDataTable readFile()
+    {
+        CovidDataLoader loader = new CovidDataLoader();
+        csvFile = loader.findDataFile();
+        if (csvFile == null)
+        {
+            return loader.loadTable();
+        }
+        CovidDataTable loaded = loader.loadTable(csvFile);
+        bytesParsed = loader.getBytesParsed();
+        return loaded;
+    }
+}
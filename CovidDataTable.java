@@ -0,0 +1,701 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The CovidDataTable class stores the whole Covid London dataset column by column instead of one object per row.
+ * Each numeric column is a single int array, dates are stored as epoch days (days since 1970-01-01) and boroughs
+ * are stored as small ids into a dictionary of borough names. Code that only needs a couple of columns can scan
+ * those arrays directly, and getRecord() still gives a CovidData view of any row for code that wants records.
+ *
+ * The rows are kept in date order (rows with the same date stay in the order they were added), so the rows of a
+ * date range are always one contiguous slice of the table, found with firstRowOnOrAfter() and firstRowAfter().
+ *
+ * A table never changes once it has been built. Use a CovidDataTable.Builder to create one. A builder started from
+ * an existing table, with rows for later days, builds the new table on top of the existing one's arrays and indexes
+ * instead of copying them, so adding a day of rows costs time in proportion to the rows added.
+ */
+public class CovidDataTable
+{
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+
+    private final long id = NEXT_ID.getAndIncrement();
+    private final int rowCount;
+    private final int[] dates; // The date of each row, as an epoch day
+    private final int[] boroughIds; // The borough of each row, as an index into boroughNames
+    private final String[] boroughNames; // The dictionary of borough names
+    private final int[][] columns; // One array per CovidMetric, indexed by the metric's ordinal
+    private final HashMap<String, Integer> boroughLookup;
+    private final int[][] boroughRows; // The rows of each borough, in date order
+    private final int[][] boroughDates; // The dates of the rows of each borough, matching boroughRows
+    private final int[] boroughRowCounts; // The number of rows of each borough
+    private final PrefixSumIndex prefixSums;
+    private final BoroughSummaryIndex boroughSummary;
+    private final RollupIndex rollups;
+    // Set once a later table has been built on the spare room at the end of this table's arrays
+    private final AtomicBoolean extended = new AtomicBoolean();
+
+    private CovidDataTable(int rowCount, int[] dates, int[] boroughIds, String[] boroughNames, int[][] columns)
+    {
+        this.rowCount = rowCount;
+        this.dates = dates;
+        this.boroughIds = boroughIds;
+        this.boroughNames = boroughNames;
+        this.columns = columns;
+        this.boroughLookup = lookup(boroughNames);
+        this.boroughRowCounts = new int[boroughNames.length];
+        this.boroughRows = partitionByBorough();
+        this.boroughDates = new int[boroughRows.length][];
+        for (int id = 0; id < boroughRows.length; id++)
+        {
+            boroughDates[id] = new int[boroughRows[id].length];
+            for (int i = 0; i < boroughRows[id].length; i++)
+            {
+                boroughDates[id][i] = dates[boroughRows[id][i]];
+            }
+        }
+        this.prefixSums = new PrefixSumIndex(this);
+        this.boroughSummary = new BoroughSummaryIndex(this);
+        this.rollups = new RollupIndex(this);
+    }
+
+    /**
+     * Creates a table holding every row of an earlier table followed by some later rows. The rows of the earlier
+     * table are not copied: the columns, the borough partitions and the indexes of the earlier table are shared and
+     * only extended past its last row, which the earlier table never reads. Only the later rows are read.
+     *
+     * @param base the earlier table, which must not have been extended before
+     * @param rowCount the number of rows of the new table
+     * @param dates the date column, holding the rows of base followed by the later rows, in date order
+     * @param boroughIds the borough column, laid out the same way
+     * @param boroughNames the borough names of base, followed by any boroughs first seen in the later rows
+     * @param columns the metric columns, laid out the same way
+     */
+    private CovidDataTable(CovidDataTable base, int rowCount, int[] dates, int[] boroughIds, String[] boroughNames,
+        int[][] columns)
+    {
+        this.rowCount = rowCount;
+        this.dates = dates;
+        this.boroughIds = boroughIds;
+        this.boroughNames = boroughNames;
+        this.columns = columns;
+        this.boroughLookup = lookup(boroughNames);
+        this.boroughRows = Arrays.copyOf(base.boroughRows, boroughNames.length);
+        this.boroughDates = Arrays.copyOf(base.boroughDates, boroughNames.length);
+        this.boroughRowCounts = Arrays.copyOf(base.boroughRowCounts, boroughNames.length);
+        for (int row = base.rowCount; row < rowCount; row++)
+        {
+            int id = boroughIds[row];
+            int count = boroughRowCounts[id]++;
+            boroughRows[id] = withRoom(boroughRows[id], count + 1);
+            boroughDates[id] = withRoom(boroughDates[id], count + 1);
+            boroughRows[id][count] = row;
+            boroughDates[id][count] = dates[row];
+        }
+        this.prefixSums = new PrefixSumIndex(base.prefixSums, this);
+        this.boroughSummary = new BoroughSummaryIndex(base.boroughSummary, this);
+        this.rollups = new RollupIndex(base.rollups, this);
+    }
+
+    private static HashMap<String, Integer> lookup(String[] boroughNames)
+    {
+        HashMap<String, Integer> lookup = new HashMap<>();
+        for (int id = 0; id < boroughNames.length; id++)
+        {
+            lookup.put(boroughNames[id], id);
+        }
+        return lookup;
+    }
+
+    /**
+     * Makes sure an array has room for a number of entries, growing it by half if it is too small.
+     *
+     * @param array the array, or null for none yet
+     * @param size the number of entries needed
+     * @return the array itself if it is big enough, otherwise a bigger copy of it
+     */
+    static int[] withRoom(int[] array, int size)
+    {
+        if (array == null)
+        {
+            return new int[Math.max(size, 16)];
+        }
+        return array.length >= size ? array : Arrays.copyOf(array, Math.max(size, array.length + (array.length >> 1)));
+    }
+
+    /**
+     * Splits the row indexes of the table up by borough. The table is in date order, so each borough's rows are too.
+     *
+     * @return the rows of each borough, indexed by borough id
+     */
+    private int[][] partitionByBorough()
+    {
+        int[] counts = boroughRowCounts;
+        for (int row = 0; row < rowCount; row++)
+        {
+            counts[boroughIds[row]]++;
+        }
+        int[][] partitions = new int[boroughNames.length][];
+        int[] filled = new int[boroughNames.length];
+        for (int id = 0; id < partitions.length; id++)
+        {
+            partitions[id] = new int[counts[id]];
+        }
+        for (int row = 0; row < rowCount; row++)
+        {
+            int id = boroughIds[row];
+            partitions[id][filled[id]++] = row;
+        }
+        return partitions;
+    }
+
+    /**
+     * Creates a table straight from columns that are already in date order, for example columns read back from a
+     * CovidSnapshot. The arrays are used as they are, not copied.
+     *
+     * @param rowCount the number of rows
+     * @param dates the date of each row, as an epoch day, in date order
+     * @param boroughIds the borough id of each row
+     * @param boroughNames the name of each borough id
+     * @param columns the values of each metric, in CovidMetric order
+     * @return the table
+     * @throws IllegalArgumentException if the columns do not fit together or the dates are out of order
+     */
+    static CovidDataTable fromSortedColumns(int rowCount, int[] dates, int[] boroughIds, String[] boroughNames, int[][] columns)
+    {
+        if (dates.length < rowCount || boroughIds.length < rowCount || columns.length != CovidMetric.values().length)
+        {
+            throw new IllegalArgumentException("The columns do not match the number of rows");
+        }
+        for (int row = 0; row < rowCount; row++)
+        {
+            if ((row > 0 && dates[row] < dates[row - 1]) || boroughIds[row] < 0 || boroughIds[row] >= boroughNames.length)
+            {
+                throw new IllegalArgumentException("Row " + row + " is out of order or has an unknown borough");
+            }
+        }
+        for (int[] column : columns)
+        {
+            if (column.length < rowCount)
+            {
+                throw new IllegalArgumentException("The columns do not match the number of rows");
+            }
+        }
+        return new CovidDataTable(rowCount, dates, boroughIds, boroughNames, columns);
+    }
+
+    public int getRowCount()
+    {
+        return rowCount;
+    }
+
+    /**
+     * @return a number that tells this table apart from every other table made while the application runs
+     */
+    public long getId()
+    {
+        return id;
+    }
+
+    /**
+     * @param row the index of the row
+     * @return the date of the row, as an epoch day
+     */
+    public int getDate(int row)
+    {
+        return dates[row];
+    }
+
+    /**
+     * @param row the index of the row
+     * @return the id of the borough of the row
+     */
+    public int getBoroughId(int row)
+    {
+        return boroughIds[row];
+    }
+
+    /**
+     * @param row the index of the row
+     * @param metric the column to read
+     * @return the value of the column in the row
+     */
+    public int getValue(CovidMetric metric, int row)
+    {
+        return columns[metric.ordinal()][row];
+    }
+
+    /**
+     * Returns the array holding every date of the table, as epoch days. Only the first getRowCount() entries are
+     * used. The array is shared with the table and must not be changed.
+     *
+     * @return the date column
+     */
+    public int[] getDateColumn()
+    {
+        return dates;
+    }
+
+    /**
+     * Returns the array holding every borough id of the table. Only the first getRowCount() entries are used.
+     * The array is shared with the table and must not be changed.
+     *
+     * @return the borough column
+     */
+    public int[] getBoroughColumn()
+    {
+        return boroughIds;
+    }
+
+    /**
+     * Returns the array holding every value of one metric. Only the first getRowCount() entries are used.
+     * The array is shared with the table and must not be changed.
+     *
+     * @param metric the column to return
+     * @return the values of the column
+     */
+    public int[] getColumn(CovidMetric metric)
+    {
+        return columns[metric.ordinal()];
+    }
+
+    /**
+     * @return the number of different boroughs in the table
+     */
+    public int getBoroughCount()
+    {
+        return boroughNames.length;
+    }
+
+    /**
+     * @param boroughId the id of a borough
+     * @return the name of the borough
+     */
+    public String getBoroughName(int boroughId)
+    {
+        return boroughNames[boroughId];
+    }
+
+    /**
+     * @param boroughName the name of a borough
+     * @return the id of the borough, or -1 if the borough is not in the table
+     */
+    public int getBoroughId(String boroughName)
+    {
+        Integer id = boroughLookup.get(boroughName);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Finds the first row dated on or after the given day, using a binary search over the sorted date column.
+     *
+     * @param epochDay the day to search for
+     * @return the index of the first row on or after the day, or getRowCount() if every row is earlier
+     */
+    public int firstRowOnOrAfter(int epochDay)
+    {
+        int low = 0;
+        int high = rowCount;
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (dates[mid] < epochDay)
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Finds the first row dated after the given day, using a binary search over the sorted date column.
+     * Together with firstRowOnOrAfter() this gives the slice of rows for a date range: the rows from
+     * firstRowOnOrAfter(start) up to, but not including, firstRowAfter(end).
+     *
+     * @param epochDay the day to search for
+     * @return the index of the first row after the day, or getRowCount() if no row is later
+     */
+    public int firstRowAfter(int epochDay)
+    {
+        return epochDay == Integer.MAX_VALUE ? rowCount : firstRowOnOrAfter(epochDay + 1);
+    }
+
+    /**
+     * Returns the rows of one borough, in date order. Only the first getBoroughRowCount(boroughId) entries are
+     * used. The array is shared with the table and must not be changed.
+     *
+     * @param boroughId the id of the borough
+     * @return the indexes of the borough's rows in the table
+     */
+    public int[] getBoroughRows(int boroughId)
+    {
+        return boroughRows[boroughId];
+    }
+
+    /**
+     * @param boroughId the id of the borough
+     * @return the number of rows of the borough
+     */
+    public int getBoroughRowCount(int boroughId)
+    {
+        return boroughRowCounts[boroughId];
+    }
+
+    /**
+     * Finds the first of a borough's rows dated on or after the given day.
+     *
+     * @param boroughId the id of the borough
+     * @param epochDay the day to search for
+     * @return the position in getBoroughRows(boroughId) of the first row on or after the day, or the number of
+     * rows of the borough if every row is earlier
+     */
+    public int firstBoroughRowOnOrAfter(int boroughId, int epochDay)
+    {
+        int[] days = boroughDates[boroughId];
+        int low = 0;
+        int high = boroughRowCounts[boroughId];
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (days[mid] < epochDay)
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Finds the first of a borough's rows dated after the given day.
+     *
+     * @param boroughId the id of the borough
+     * @param epochDay the day to search for
+     * @return the position in getBoroughRows(boroughId) of the first row after the day, or the number of rows of
+     * the borough if no row is later
+     */
+    public int firstBoroughRowAfter(int boroughId, int epochDay)
+    {
+        return epochDay == Integer.MAX_VALUE ? boroughRowCounts[boroughId] : firstBoroughRowOnOrAfter(boroughId, epochDay + 1);
+    }
+
+    /**
+     * @return the running totals of every metric, for answering date range sums and averages
+     */
+    public PrefixSumIndex getPrefixSums()
+    {
+        return prefixSums;
+    }
+
+    /**
+     * @return the latest value of every metric for each borough as of any day
+     */
+    public BoroughSummaryIndex getBoroughSummary()
+    {
+        return boroughSummary;
+    }
+
+    /**
+     * @return the weekly and monthly totals, minimums and maximums of every metric, overall and for each borough
+     */
+    public RollupIndex getRollups()
+    {
+        return rollups;
+    }
+
+    /**
+     * Creates a record holding the values of one row.
+     *
+     * @param row the index of the row
+     * @return a new record for the row
+     */
+    public CovidData getRecord(int row)
+    {
+        return new CovidData(EpochDays.format(dates[row]), boroughNames[boroughIds[row]],
+            columns[0][row], columns[1][row], columns[2][row], columns[3][row], columns[4][row],
+            columns[5][row], columns[6][row], columns[7][row], columns[8][row], columns[9][row]);
+    }
+
+    /**
+     * The Builder class collects rows one at a time and turns them into a CovidDataTable.
+     */
+    public static class Builder
+    {
+        private CovidDataTable base; // The table the rows are added to, or null
+        private int rowCount; // The number of rows added, not counting the rows of base
+        private int[] dates;
+        private int[] boroughIds;
+        private int[][] columns;
+        private final HashMap<String, Integer> boroughLookup = new HashMap<>();
+        private String[] boroughNames = new String[16];
+
+        public Builder()
+        {
+            this(1024);
+        }
+
+        /**
+         * Creates a builder that starts out holding every row of an existing table, so that more rows can be added
+         * to it. The borough ids of the existing table are kept. Only the added rows are held by the builder, the
+         * rows of the existing table are left where they are.
+         *
+         * @param base the table to start from
+         * @param extraRows the number of rows expected to be added
+         */
+        public Builder(CovidDataTable base, int extraRows)
+        {
+            this(extraRows);
+            this.base = base;
+            for (String name : base.boroughNames)
+            {
+                boroughId(name);
+            }
+        }
+
+        /**
+         * @param expectedRows the number of rows the builder should make room for up front
+         */
+        public Builder(int expectedRows)
+        {
+            int capacity = Math.max(expectedRows, 16);
+            dates = new int[capacity];
+            boroughIds = new int[capacity];
+            columns = new int[CovidMetric.values().length][capacity];
+        }
+
+        /**
+         * Adds one row to the table.
+         *
+         * @param date the date of the row, in the format yyyy-MM-dd
+         * @param borough the name of the borough of the row
+         * @param values the value of every metric, in CovidMetric order
+         */
+        public void addRow(String date, String borough, int[] values)
+        {
+            addRow(EpochDays.parse(date.trim()), boroughId(borough), values);
+        }
+
+        /**
+         * Adds one row to the table.
+         *
+         * @param epochDay the date of the row, as an epoch day
+         * @param boroughId the id of the borough, as returned by boroughId()
+         * @param values the value of every metric, in CovidMetric order
+         */
+        public void addRow(int epochDay, int boroughId, int[] values)
+        {
+            if (rowCount == dates.length)
+            {
+                grow();
+            }
+            dates[rowCount] = epochDay;
+            boroughIds[rowCount] = boroughId;
+            for (int c = 0; c < columns.length; c++)
+            {
+                columns[c][rowCount] = values[c];
+            }
+            rowCount++;
+        }
+
+        /**
+         * Returns the id of a borough, adding the borough to the dictionary if it has not been seen before.
+         *
+         * @param borough the name of the borough
+         * @return the id of the borough
+         */
+        public int boroughId(String borough)
+        {
+            Integer id = boroughLookup.get(borough);
+            if (id == null)
+            {
+                id = boroughLookup.size();
+                boroughLookup.put(borough, id);
+                if (id == boroughNames.length)
+                {
+                    boroughNames = Arrays.copyOf(boroughNames, id * 2);
+                }
+                boroughNames[id] = borough;
+            }
+            return id;
+        }
+
+        /**
+         * @return the number of rows the built table will hold, including those of the table the builder started from
+         */
+        public int getRowCount()
+        {
+            return base == null ? rowCount : base.rowCount + rowCount;
+        }
+
+        /**
+         * Builds the table, sorting the rows into date order. The sort is stable, so rows with the same date
+         * keep the order they were added in.
+         *
+         * If the builder started from an existing table and the added rows are all dated on or after its last row,
+         * as when the rows of new days are appended to the csv file, the new table is built on top of the existing
+         * one and only the added rows are read. Otherwise every row is copied and sorted again.
+         *
+         * @return a table holding every row added so far
+         */
+        public CovidDataTable build()
+        {
+            if (base != null)
+            {
+                if (isInDateOrder() && (rowCount == 0 || base.rowCount == 0 || dates[0] >= base.dates[base.rowCount - 1])
+                    && base.extended.compareAndSet(false, true))
+                {
+                    return extendBase();
+                }
+                // Out of order rows, or a table that has already been extended: fall back to copying every row
+                absorbBase();
+            }
+            if (isInDateOrder())
+            {
+                // Usually the case, as the csv file is written in date order
+                int[][] builtColumns = new int[columns.length][];
+                for (int c = 0; c < columns.length; c++)
+                {
+                    builtColumns[c] = Arrays.copyOf(columns[c], rowCount);
+                }
+                return new CovidDataTable(rowCount, Arrays.copyOf(dates, rowCount), Arrays.copyOf(boroughIds, rowCount),
+                    Arrays.copyOf(boroughNames, boroughLookup.size()), builtColumns);
+            }
+            int[] order = dateOrder();
+            int[] sortedDates = new int[rowCount];
+            int[] sortedBoroughs = new int[rowCount];
+            int[][] sortedColumns = new int[columns.length][rowCount];
+            for (int row = 0; row < rowCount; row++)
+            {
+                int from = order[row];
+                sortedDates[row] = dates[from];
+                sortedBoroughs[row] = boroughIds[from];
+                for (int c = 0; c < columns.length; c++)
+                {
+                    sortedColumns[c][row] = columns[c][from];
+                }
+            }
+            return new CovidDataTable(rowCount, sortedDates, sortedBoroughs,
+                Arrays.copyOf(boroughNames, boroughLookup.size()), sortedColumns);
+        }
+
+        /**
+         * Builds a table on top of the table the builder started from, writing the added rows into the spare room
+         * at the end of its arrays, which grow only when they are full.
+         */
+        private CovidDataTable extendBase()
+        {
+            int total = base.rowCount + rowCount;
+            int[] builtDates = withRoom(base.dates, total);
+            int[] builtBoroughs = withRoom(base.boroughIds, total);
+            System.arraycopy(dates, 0, builtDates, base.rowCount, rowCount);
+            System.arraycopy(boroughIds, 0, builtBoroughs, base.rowCount, rowCount);
+            int[][] builtColumns = new int[columns.length][];
+            for (int c = 0; c < columns.length; c++)
+            {
+                builtColumns[c] = withRoom(base.columns[c], total);
+                System.arraycopy(columns[c], 0, builtColumns[c], base.rowCount, rowCount);
+            }
+            return new CovidDataTable(base, total, builtDates, builtBoroughs,
+                Arrays.copyOf(boroughNames, boroughLookup.size()), builtColumns);
+        }
+
+        /**
+         * Copies the rows of the table the builder started from in front of the added rows, so the builder holds
+         * every row itself.
+         */
+        private void absorbBase()
+        {
+            int total = base.rowCount + rowCount;
+            int[] allDates = new int[Math.max(total, 16)];
+            int[] allBoroughs = new int[allDates.length];
+            System.arraycopy(base.dates, 0, allDates, 0, base.rowCount);
+            System.arraycopy(dates, 0, allDates, base.rowCount, rowCount);
+            System.arraycopy(base.boroughIds, 0, allBoroughs, 0, base.rowCount);
+            System.arraycopy(boroughIds, 0, allBoroughs, base.rowCount, rowCount);
+            for (int c = 0; c < columns.length; c++)
+            {
+                int[] all = new int[allDates.length];
+                System.arraycopy(base.columns[c], 0, all, 0, base.rowCount);
+                System.arraycopy(columns[c], 0, all, base.rowCount, rowCount);
+                columns[c] = all;
+            }
+            dates = allDates;
+            boroughIds = allBoroughs;
+            rowCount = total;
+            base = null;
+        }
+
+        /**
+         * @return true if the rows were added in date order already
+         */
+        private boolean isInDateOrder()
+        {
+            for (int row = 1; row < rowCount; row++)
+            {
+                if (dates[row] < dates[row - 1])
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Works out the order of the rows by date with a counting sort. The dataset covers a few thousand
+         * days at most, so this is linear in the number of rows and keeps rows of the same date in order.
+         *
+         * @return the index of the row that belongs in each position of the sorted table
+         */
+        private int[] dateOrder()
+        {
+            int[] order = new int[rowCount];
+            if (rowCount == 0)
+            {
+                return order;
+            }
+            int minDate = Integer.MAX_VALUE;
+            int maxDate = Integer.MIN_VALUE;
+            for (int row = 0; row < rowCount; row++)
+            {
+                minDate = Math.min(minDate, dates[row]);
+                maxDate = Math.max(maxDate, dates[row]);
+            }
+            int[] starts = new int[maxDate - minDate + 2];
+            for (int row = 0; row < rowCount; row++)
+            {
+                starts[dates[row] - minDate + 1]++;
+            }
+            for (int day = 1; day < starts.length; day++)
+            {
+                starts[day] += starts[day - 1];
+            }
+            for (int row = 0; row < rowCount; row++)
+            {
+                order[starts[dates[row] - minDate]++] = row;
+            }
+            return order;
+        }
+
+        /**
+         * Doubles the room for rows.
+         */
+        private void grow()
+        {
+            int capacity = dates.length * 2;
+            dates = Arrays.copyOf(dates, capacity);
+            boroughIds = Arrays.copyOf(boroughIds, capacity);
+            for (int c = 0; c < columns.length; c++)
+            {
+                columns[c] = Arrays.copyOf(columns[c], capacity);
+            }
+        }
+    }
+}
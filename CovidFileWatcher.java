@@ -0,0 +1,122 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The CovidFileWatcher class watches one file with a WatchService and runs an action on a background thread each
+ * time the file is created or modified. Changes that arrive close together, such as the several writes of one
+ * append, are gathered into a single run of the action.
+ */
+public class CovidFileWatcher
+{
+    private static final long SETTLE_MILLIS = 250; // How long to wait for more changes before running the action
+
+    private final Path file;
+    private final Runnable action;
+    private final WatchService watchService;
+    private Thread thread;
+
+    /**
+     * @param file the file to watch
+     * @param action the action to run when the file changes
+     * @throws IOException if the folder of the file cannot be watched
+     */
+    public CovidFileWatcher(File file, Runnable action) throws IOException
+    {
+        this.file = file.toPath().toAbsolutePath();
+        this.action = action;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+
+    /**
+     * Starts watching on a daemon thread.
+     */
+    public synchronized void start()
+    {
+        if (thread == null)
+        {
+            thread = new Thread(this::watch, "covid-file-watcher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops watching. The action is not run again afterwards.
+     */
+    public synchronized void stop()
+    {
+        try
+        {
+            watchService.close();
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+        if (thread != null)
+        {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    private void watch()
+    {
+        try
+        {
+            while (true)
+            {
+                boolean changed = takeChanges(watchService.take());
+                // Keep gathering changes until the file has been quiet for a moment
+                WatchKey key;
+                while ((key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null)
+                {
+                    changed |= takeChanges(key);
+                }
+                if (changed)
+                {
+                    try
+                    {
+                        action.run();
+                    }
+                    catch (RuntimeException e)
+                    {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+        catch (InterruptedException | ClosedWatchServiceException e)
+        {
+            // Stopped
+        }
+    }
+
+    /**
+     * Reads the events of a key and gets the key ready for more events.
+     *
+     * @return true if any of the events were about the watched file
+     */
+    private boolean takeChanges(WatchKey key)
+    {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents())
+        {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context()))
+            {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+}
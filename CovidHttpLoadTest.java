@@ -0,0 +1,84 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The CovidHttpLoadTest class sends many requests to a CovidHttpServer at once and reports how many it answered per
+ * second and how long the answers took. Each of the concurrent clients sends its next request as soon as the last
+ * one is answered, until the total number of requests has been sent.
+ *
+ * Usage: java CovidHttpLoadTest [url] [concurrent clients] [requests]
+ */
+public class CovidHttpLoadTest
+{
+    private static final String DEFAULT_URL =
+        "http://localhost:" + CovidHttpServer.DEFAULT_PORT + "/aggregate?start=2020-03-01&end=2021-03-01&stats=NEW_CASES:MAX,NEW_CASES:SUM";
+
+    public static void main(String[] args) throws InterruptedException
+    {
+        URI uri = URI.create(args.length > 0 ? args[0] : DEFAULT_URL);
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int requests = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        HttpRequest request = HttpRequest.newBuilder(uri).GET().build();
+        long[] latencies = new long[requests];
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+
+        System.out.println("Sending " + requests + " requests from " + clients + " clients to " + uri);
+        ExecutorService executor = CovidHttpServer.createExecutor();
+        long start = System.nanoTime();
+        for (int c = 0; c < clients; c++)
+        {
+            executor.execute(() -> {
+                for (int i = next.getAndIncrement(); i < requests; i = next.getAndIncrement())
+                {
+                    long sent = System.nanoTime();
+                    try
+                    {
+                        if (client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() != 200)
+                        {
+                            failures.incrementAndGet();
+                        }
+                    }
+                    catch (IOException e)
+                    {
+                        failures.incrementAndGet();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    latencies[i] = System.nanoTime() - sent;
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.DAYS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        Arrays.sort(latencies);
+        System.out.printf("%d requests in %.2f s: %.0f requests per second, %d failed%n",
+            requests, seconds, requests / seconds, failures.get());
+        System.out.printf("Latency ms: p50 %.3f, p90 %.3f, p99 %.3f, p99.9 %.3f, max %.3f%n",
+            percentile(latencies, 0.50), percentile(latencies, 0.90), percentile(latencies, 0.99),
+            percentile(latencies, 0.999), latencies[latencies.length - 1] / 1e6);
+    }
+
+    /**
+     * @return the latency in milliseconds that a share of the sorted latencies are at or below
+     */
+    private static double percentile(long[] sorted, double fraction)
+    {
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(index, 0)] / 1e6;
+    }
+}
@@ -0,0 +1,450 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The CovidHttpServer class serves the numbers shown by the Statistics and Map panels as JSON over HTTP, so other
+ * tools can use them without the user interface. Every request is answered from the shared in-memory dataset, and
+ * through the shared QueryCache, so rows appended to the csv file show up in the next answer.
+ *
+ * The endpoints, all answering GET requests:
+ *
+ *     /aggregate?start=2020-03-01&end=2020-06-30[&borough=Camden][&stats=NEW_CASES:SUM,TOTAL_DEATHS:MAX]
+ *         Statistics over a date range, as CovidQueryService.toJson() describes them. Without stats, the
+ *         statistics of the Statistics panel.
+ *     /series?metric=NEW_CASES&start=2020-03-01&end=2020-06-30[&window=7][&borough=Camden]
+ *         The rolling sum and mean of a metric for every day of the range, for one borough or every borough.
+ *         The window defaults to 1, which gives the daily values.
+ *     /map?metric=TOTAL_DEATHS&start=2020-03-01&end=2020-06-30[&method=QUANTILE]
+ *         The value of every borough and the color class the map gives it, with the breaks between the classes.
+ *         The method defaults to FIXED. The method actually used is given back, as metrics without fixed
+ *         thresholds are split into quantiles instead.
+ *     /metrics
+ *         The snapshot of Metrics, including the latency percentiles of every endpoint.
+ *
+ * Each request is handled on a virtual thread when the JDK has them, or else on a pooled thread, so thousands of
+ * requests can be in progress at once. The server only listens on the loopback address.
+ *
+ * Usage: java CovidHttpServer [port]. The application starts the same server alongside its window when the
+ * covid.http.port system property is set. CovidHttpLoadTest can load-test either.
+ */
+public class CovidHttpServer
+{
+    /**
+     * The port used when none is given.
+     */
+    public static final int DEFAULT_PORT = 8080;
+
+    private static final int BACKLOG = 4096; // Connections the operating system queues while all are busy
+    private static final int MAX_SERIES_DAYS = 3660; // About ten years, so one request cannot use up the memory
+    private static final Metrics.Counter ERRORS = Metrics.counter("http.errors");
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private volatile CovidQueryService service; // Answers queries about the table it was made for
+
+    /**
+     * Creates a server listening on the loopback address. It does not answer requests until start() is called.
+     *
+     * The JDK's server writes the headers and the body of an answer separately, so unless it is launched with
+     * -Dsun.net.httpserver.nodelay=true the body waits for the client's delayed acknowledgement of the headers,
+     * adding about 40 ms to every answer. startIfConfigured() and main() set that property for their servers.
+     *
+     * @param port the port to listen on, or 0 for any free port
+     * @throws IOException if the port cannot be opened
+     */
+    public CovidHttpServer(int port) throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), BACKLOG);
+        executor = createExecutor();
+        server.setExecutor(executor);
+        addEndpoint("aggregate", this::aggregate);
+        addEndpoint("series", this::series);
+        addEndpoint("map", this::map);
+        addEndpoint("metrics", parameters -> Metrics.snapshot());
+    }
+
+    /**
+     * Starts the server if the covid.http.port system property is set.
+     *
+     * @return the started server, or null if the property is not set or the server could not be started
+     */
+    public static CovidHttpServer startIfConfigured()
+    {
+        Integer port = Integer.getInteger("covid.http.port");
+        if (port == null)
+        {
+            return null;
+        }
+        try
+        {
+            preferNoDelay();
+            CovidHttpServer server = new CovidHttpServer(port);
+            server.start();
+            System.out.println("Serving Covid London queries on http://localhost:" + server.getPort() + "/");
+            return server;
+        }
+        catch (IOException e)
+        {
+            System.out.println("Could not start the query server on port " + port + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Turns on TCP_NODELAY for the JDK's HTTP server, unless the sun.net.httpserver.nodelay system property has
+     * been set already. The property is read once, when the first server of the JVM is created, so this has to be
+     * called before that.
+     */
+    private static void preferNoDelay()
+    {
+        if (System.getProperty("sun.net.httpserver.nodelay") == null)
+        {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    public void start()
+    {
+        server.start();
+    }
+
+    /**
+     * Stops the server, letting requests in progress finish for up to a second.
+     */
+    public void stop()
+    {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    /**
+     * @return the port the server listens on
+     */
+    public int getPort()
+    {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Creates an executor that runs each task on a new virtual thread. Virtual threads only exist from Java 21, so
+     * the executor is looked up by reflection, and a pool of daemon threads is used on earlier versions.
+     */
+    static ExecutorService createExecutor()
+    {
+        try
+        {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "covid-http");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * An endpoint works out the body of an answer from the parameters of a request.
+     */
+    private interface Endpoint
+    {
+        /**
+         * @throws IllegalArgumentException if the parameters are missing or not valid
+         */
+        String answer(Map<String, String> parameters);
+    }
+
+    /**
+     * Serves an endpoint at /name, timing its requests in the http.name histogram of Metrics.
+     */
+    private void addEndpoint(String name, Endpoint endpoint)
+    {
+        Metrics.Histogram latency = Metrics.histogram("http." + name);
+        server.createContext("/" + name, exchange -> handle(exchange, latency, endpoint));
+    }
+
+    /**
+     * Answers a request: 200 with the endpoint's JSON, 400 if the parameters are not valid, 405 for anything but
+     * GET, and 500 if something else goes wrong.
+     */
+    private void handle(HttpExchange exchange, Metrics.Histogram latency, Endpoint endpoint) throws IOException
+    {
+        long start = Metrics.start();
+        int status = 200;
+        String body;
+        try
+        {
+            if (!"GET".equals(exchange.getRequestMethod()))
+            {
+                status = 405;
+                body = error("Only GET is supported");
+            }
+            else
+            {
+                body = endpoint.answer(parameters(exchange.getRequestURI().getRawQuery()));
+            }
+        }
+        catch (IllegalArgumentException e)
+        {
+            status = 400;
+            body = error(e.getMessage());
+        }
+        catch (RuntimeException e)
+        {
+            e.printStackTrace();
+            status = 500;
+            body = error("Something went wrong while answering the request");
+        }
+
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        try (OutputStream out = exchange.getResponseBody())
+        {
+            exchange.sendResponseHeaders(status, bytes.length);
+            out.write(bytes);
+        }
+        latency.recordSince(start);
+        if (status != 200)
+        {
+            ERRORS.increment();
+        }
+    }
+
+    /**
+     * Answers /aggregate.
+     */
+    private String aggregate(Map<String, String> parameters)
+    {
+        CovidQueryService service = service();
+        int endDay = day(parameters, "end");
+        int startDay = startDay(parameters, endDay);
+        int boroughId = service.boroughId(parameters.get("borough"));
+        String stats = parameters.get("stats");
+        AggregationQuery query = stats == null || stats.trim().isEmpty()
+            ? CovidQueryService.panelStatistics(startDay, endDay, boroughId)
+            : CovidQueryService.addStatistics(new AggregationQuery(startDay, endDay, boroughId), stats);
+        return service.toJson(service.run(query));
+    }
+
+    /**
+     * Answers /series.
+     */
+    private String series(Map<String, String> parameters)
+    {
+        CovidQueryService service = service();
+        CovidMetric metric = CovidQueryService.parseMetric(required(parameters, "metric"));
+        int endDay = day(parameters, "end");
+        int startDay = startDay(parameters, endDay);
+        int window = parameters.containsKey("window") ? number(parameters, "window") : 1;
+        if (window < 1 || window > 366)
+        {
+            throw new IllegalArgumentException("The window must be from 1 to 366 days");
+        }
+        if (endDay - startDay >= MAX_SERIES_DAYS)
+        {
+            throw new IllegalArgumentException("A series can cover at most " + MAX_SERIES_DAYS + " days");
+        }
+        String borough = parameters.get("borough");
+        int onlyBorough = borough == null ? AggregationQuery.ALL_BOROUGHS : service.boroughId(borough);
+
+        RollingWindowEngine.RollingSeries series = new RollingWindowEngine(service.getTable())
+            .compute(metric, window, startDay, endDay, onlyBorough);
+        StringBuilder json = new StringBuilder();
+        json.append("{\"metric\":\"").append(metric).append("\",\"window\":").append(window)
+            .append(",\"start\":\"").append(EpochDays.format(startDay)).append("\",\"end\":\"")
+            .append(EpochDays.format(endDay)).append("\",\"dates\":[");
+        for (int i = 0; i < series.getDayCount(); i++)
+        {
+            json.append(i == 0 ? "\"" : ",\"").append(EpochDays.format(startDay + i)).append('"');
+        }
+        json.append("],\"boroughs\":[");
+        boolean first = true;
+        for (int b = 0; b < series.getBoroughCount(); b++)
+        {
+            if (!series.hasBorough(b))
+            {
+                continue;
+            }
+            json.append(first ? "" : ",").append("{\"borough\":").append(CovidQueryService.jsonString(service.boroughName(b)))
+                .append(",\"sum\":[");
+            for (int i = 0; i < series.getDayCount(); i++)
+            {
+                json.append(i == 0 ? "" : ",").append(series.sum(b, i));
+            }
+            json.append("],\"mean\":[");
+            for (int i = 0; i < series.getDayCount(); i++)
+            {
+                json.append(i == 0 ? "" : ",").append(CovidQueryService.jsonNumber(series.mean(b, i)));
+            }
+            json.append("]}");
+            first = false;
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * Answers /map.
+     */
+    private String map(Map<String, String> parameters)
+    {
+        CovidQueryService service = service();
+        CovidMetric metric = CovidQueryService.parseMetric(required(parameters, "metric"));
+        int endDay = day(parameters, "end");
+        int startDay = startDay(parameters, endDay);
+        ChoroplethClassifier.Method method = ChoroplethClassifier.Method.FIXED;
+        if (parameters.containsKey("method"))
+        {
+            try
+            {
+                method = ChoroplethClassifier.Method.valueOf(parameters.get("method").trim().toUpperCase(Locale.ROOT));
+            }
+            catch (IllegalArgumentException e)
+            {
+                throw new IllegalArgumentException("Unknown coloring method \"" + parameters.get("method") + "\"");
+            }
+        }
+
+        double[] values = service.boroughValues(metric, startDay, endDay);
+        ChoroplethClassifier classifier = CovidQueryService.mapClassifier(metric, method);
+        double[] breaks = classifier.computeBreaks(values);
+        int[] classes = ChoroplethClassifier.classify(values, breaks);
+        StringBuilder json = new StringBuilder();
+        json.append("{\"metric\":\"").append(metric).append("\",\"method\":\"").append(classifier.getMethod())
+            .append("\",\"start\":\"").append(EpochDays.format(startDay)).append("\",\"end\":\"")
+            .append(EpochDays.format(endDay)).append("\",\"breaks\":[");
+        for (int i = 0; i < breaks.length; i++)
+        {
+            json.append(i == 0 ? "" : ",").append(CovidQueryService.jsonNumber(breaks[i]));
+        }
+        json.append("],\"boroughs\":[");
+        for (int b = 0; b < values.length; b++)
+        {
+            json.append(b == 0 ? "" : ",").append("{\"borough\":").append(CovidQueryService.jsonString(service.boroughName(b)))
+                .append(",\"value\":").append(CovidQueryService.jsonNumber(values[b]))
+                .append(",\"class\":").append(classes[b] < 0 ? "null" : String.valueOf(classes[b])).append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * @return a service for the shared dataset as it is now. A new one is only made after the dataset has changed
+     */
+    private CovidQueryService service()
+    {
+        CovidDataTable table = CovidDataRepository.getInstance().getTable();
+        CovidQueryService current = service;
+        if (current == null || current.getTable() != table)
+        {
+            current = new CovidQueryService(table);
+            service = current;
+        }
+        return current;
+    }
+
+    /**
+     * Splits the query string of a request into its parameters.
+     */
+    private static Map<String, String> parameters(String query)
+    {
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null || query.isEmpty())
+        {
+            return parameters;
+        }
+        for (String pair : query.split("&"))
+        {
+            int equals = pair.indexOf('=');
+            String name = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            parameters.put(decode(name), decode(value));
+        }
+        return parameters;
+    }
+
+    private static String decode(String text)
+    {
+        try
+        {
+            return URLDecoder.decode(text, "UTF-8");
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            throw new IllegalStateException(e); // UTF-8 is always supported
+        }
+    }
+
+    private static String required(Map<String, String> parameters, String name)
+    {
+        String value = parameters.get(name);
+        if (value == null || value.trim().isEmpty())
+        {
+            throw new IllegalArgumentException("Missing parameter " + name);
+        }
+        return value;
+    }
+
+    private static int day(Map<String, String> parameters, String name)
+    {
+        return CovidQueryService.parseDay(required(parameters, name));
+    }
+
+    /**
+     * @return the start parameter, after checking that it is not after the end of the range
+     */
+    private static int startDay(Map<String, String> parameters, int endDay)
+    {
+        int startDay = day(parameters, "start");
+        if (endDay < startDay)
+        {
+            throw new IllegalArgumentException("The range ends before it starts");
+        }
+        return startDay;
+    }
+
+    private static int number(Map<String, String> parameters, String name)
+    {
+        try
+        {
+            return Integer.parseInt(required(parameters, name).trim());
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException("Parameter " + name + " must be a whole number");
+        }
+    }
+
+    private static String error(String message)
+    {
+        return "{\"error\":" + CovidQueryService.jsonString(message) + "}";
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        // Load the dataset before the first request, so it does not wait for it
+        CovidDataTable table = CovidDataRepository.getInstance().getTable();
+        CovidDataRepository.getInstance().startWatching();
+        preferNoDelay();
+        CovidHttpServer server = new CovidHttpServer(port);
+        server.start();
+        System.out.println("Serving " + table.getRowCount() + " rows on http://localhost:" + server.getPort() + "/");
+        if (!Metrics.ENABLED)
+        {
+            System.out.println("Run with -Dcovid.metrics=true to record latency percentiles for /metrics");
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * The numeric columns of the Covid London dataset, in the same order as they appear in the csv file.
+ * The ordinal of each constant is the index of its column in a CovidDataTable.
+ */
+public enum CovidMetric
+{
+    RETAIL_RECREATION_GMR("Retail Recreation GMR", "retail_and_recreation"),
+    GROCERY_PHARMACY_GMR("Grocery Pharmacy GMR", "grocery_and_pharmacy"),
+    PARKS_GMR("Parks GMR", "parks"),
+    TRANSIT_GMR("Transit GMR", "transit_stations"),
+    WORKPLACES_GMR("Workplaces GMR", "workplaces"),
+    RESIDENTIAL_GMR("Residential GMR", "residential"),
+    NEW_CASES("New COVID Cases", "new_cases"),
+    TOTAL_CASES("Total COVID Cases", "total_cases"),
+    NEW_DEATHS("New COVID Deaths", "new_deaths"),
+    TOTAL_DEATHS("Total COVID Deaths", "total_deaths", 500, 1000);
+
+    private final String displayName; // The name shown to the user
+    private final String columnName; // The title of the column in the csv file
+    private final double[] mapBreaks; // The map's fixed thresholds, or empty if the metric has none
+
+    CovidMetric(String displayName, String columnName, double... mapBreaks)
+    {
+        this.displayName = displayName;
+        this.columnName = columnName;
+        this.mapBreaks = mapBreaks;
+    }
+
+    public String getDisplayName()
+    {
+        return displayName;
+    }
+
+    public String getColumnName()
+    {
+        return columnName;
+    }
+
+    /**
+     * Returns the fixed thresholds the map uses between its color classes when it is colored by this metric. Only
+     * total deaths has thresholds of its own. Any metric can be given thresholds with a system property named
+     * covid.map.breaks. followed by the metric's name, holding the thresholds separated by commas, such as
+     * -Dcovid.map.breaks.NEW_CASES=1000,5000. A property that is not a list of numbers in increasing order is
+     * reported and ignored.
+     *
+     * @return the thresholds in increasing order, or null if the metric has none
+     */
+    public double[] getMapBreaks()
+    {
+        String property = System.getProperty("covid.map.breaks." + name());
+        if (property != null)
+        {
+            try
+            {
+                String[] fields = property.split(",");
+                double[] breaks = new double[fields.length];
+                for (int i = 0; i < fields.length; i++)
+                {
+                    breaks[i] = Double.parseDouble(fields[i].trim());
+                    // The color classes are only in order if each threshold is at least the one before it
+                    if (Double.isNaN(breaks[i]) || i > 0 && breaks[i] < breaks[i - 1])
+                    {
+                        CovidDataLoader.problem("Ignoring covid.map.breaks." + name() + ", which is not in increasing order: " + property);
+                        return mapBreaks.length == 0 ? null : mapBreaks.clone();
+                    }
+                }
+                return breaks;
+            }
+            catch (NumberFormatException e)
+            {
+                CovidDataLoader.problem("Ignoring covid.map.breaks." + name() + ", which is not a list of numbers: " + property);
+            }
+        }
+        return mapBreaks.length == 0 ? null : mapBreaks.clone();
+    }
+
+    /**
+     * @return true if the column is a running total that only ever goes up, such as total cases
+     */
+    public boolean isCumulative()
+    {
+        return this == TOTAL_CASES || this == TOTAL_DEATHS;
+    }
+
+    /**
+     * Reads the value of this column from a record.
+     *
+     * @param rec the record to read from
+     * @return the value of this column in the record
+     */
+    public int valueOf(CovidData rec)
+    {
+        switch (this)
+        {
+            case RETAIL_RECREATION_GMR: return rec.getRetailRecreationGMR();
+            case GROCERY_PHARMACY_GMR: return rec.getGroceryPharmacyGMR();
+            case PARKS_GMR: return rec.getParksGMR();
+            case TRANSIT_GMR: return rec.getTransitGMR();
+            case WORKPLACES_GMR: return rec.getWorkplacesGMR();
+            case RESIDENTIAL_GMR: return rec.getResidentialGMR();
+            case NEW_CASES: return rec.getNewCases();
+            case TOTAL_CASES: return rec.getTotalCases();
+            case NEW_DEATHS: return rec.getNewDeaths();
+            default: return rec.getTotalDeaths();
+        }
+    }
+}
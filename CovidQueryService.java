@@ -0,0 +1,384 @@
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * The CovidQueryService class answers questions about the Covid London dataset without any user interface, so the
+ * same numbers the panels show can be worked out by the command line, by other programs, or on a server with no
+ * display. It never touches JavaFX.
+ *
+ * Queries are answered by an AggregationEngine that shares the application's ParallelScanner and QueryCache, so
+ * the panels and every other user of the service benefit from each other's cached minimums and maximums.
+ *
+ * The service also reads queries written as text: dates as yyyy-MM-dd, boroughs by name, and statistics as
+ * METRIC:FUNCTION, for example NEW_CASES:SUM.
+ */
+public class CovidQueryService
+{
+    /**
+     * The name that stands for the whole of London wherever a borough is expected.
+     */
+    public static final String ALL_BOROUGHS_NAME = "ALL";
+
+    /**
+     * The number of color classes of the map.
+     */
+    public static final int MAP_CLASS_COUNT = 3;
+
+    private static final Pattern STATISTIC_SEPARATOR = Pattern.compile("[\\s;,]+");
+
+    private final CovidDataTable table;
+    private final AggregationEngine engine;
+
+    /**
+     * Creates a service that answers queries about a dataset.
+     *
+     * @param table the dataset to answer queries from
+     */
+    public CovidQueryService(CovidDataTable table)
+    {
+        this.table = table;
+        this.engine = new AggregationEngine(table, ParallelScanner.getShared(), QueryCache.getShared());
+    }
+
+    /**
+     * @return a service answering queries about the shared dataset as it is now, loading it if needed
+     */
+    public static CovidQueryService forSharedDataset()
+    {
+        return new CovidQueryService(CovidDataRepository.getInstance().getTable());
+    }
+
+    public CovidDataTable getTable()
+    {
+        return table;
+    }
+
+    /**
+     * Answers every statistic of a query.
+     *
+     * @param query the statistics to work out
+     * @return the value of every statistic, in query order
+     */
+    public AggregationResult run(AggregationQuery query)
+    {
+        return engine.run(query);
+    }
+
+    /**
+     * Works out the statistics shown on the Statistics panel.
+     *
+     * @param startDay the first day of the range, as an epoch day
+     * @param endDay the last day of the range, as an epoch day
+     * @return the statistics of panelStatistics() for the range
+     */
+    public AggregationResult statistics(int startDay, int endDay)
+    {
+        return run(panelStatistics(startDay, endDay));
+    }
+
+    /**
+     * Creates a query for the statistics shown on the Statistics panel: the average parks and transit mobility, the
+     * sum of total deaths and the average of total cases, over the whole of London.
+     *
+     * @param startDay the first day of the range, as an epoch day
+     * @param endDay the last day of the range, as an epoch day
+     * @return the query
+     */
+    public static AggregationQuery panelStatistics(int startDay, int endDay)
+    {
+        return panelStatistics(startDay, endDay, AggregationQuery.ALL_BOROUGHS);
+    }
+
+    /**
+     * Creates a query for the statistics shown on the Statistics panel, for one borough or the whole of London.
+     *
+     * @param startDay the first day of the range, as an epoch day
+     * @param endDay the last day of the range, as an epoch day
+     * @param boroughId the id of the borough, or AggregationQuery.ALL_BOROUGHS
+     * @return the query
+     */
+    public static AggregationQuery panelStatistics(int startDay, int endDay, int boroughId)
+    {
+        return new AggregationQuery(startDay, endDay, boroughId)
+            .add(CovidMetric.PARKS_GMR, AggregateFunction.MEAN)
+            .add(CovidMetric.TRANSIT_GMR, AggregateFunction.MEAN)
+            .add(CovidMetric.TOTAL_DEATHS, AggregateFunction.SUM)
+            .add(CovidMetric.TOTAL_CASES, AggregateFunction.MEAN);
+    }
+
+    /**
+     * Works out the value of a metric for every borough, as used to color the map.
+     *
+     * @param metric the metric to work out
+     * @param startDay the first day of the range, as an epoch day
+     * @param endDay the last day of the range, as an epoch day
+     * @return the value of each borough, indexed by borough id, as given by ChoroplethClassifier.boroughValues()
+     */
+    public double[] boroughValues(CovidMetric metric, int startDay, int endDay)
+    {
+        return ChoroplethClassifier.boroughValues(table, metric, startDay, endDay);
+    }
+
+    /**
+     * Finds the rows of a borough within a date range, as listed by the Borough window.
+     *
+     * @param table the dataset to search
+     * @param borough the name of the borough
+     * @param startDay the first day of the range, as an epoch day
+     * @param endDay the last day of the range, as an epoch day
+     * @return the rows in date order, empty if the borough is not in the dataset
+     */
+    public static int[] findRows(CovidDataTable table, String borough, int startDay, int endDay)
+    {
+        int boroughId = table.getBoroughId(borough);
+        if (boroughId < 0)
+        {
+            return new int[0];
+        }
+        int[] rows = table.getBoroughRows(boroughId);
+        int startRow = table.firstBoroughRowOnOrAfter(boroughId, startDay);
+        int endRow = table.firstBoroughRowAfter(boroughId, endDay);
+        return Arrays.copyOfRange(rows, startRow, Math.max(startRow, endRow));
+    }
+
+    /**
+     * Sorts rows by one column of the dataset, as when a column of the Borough window is clicked. Rows with the
+     * same value keep their order, so sorting by several columns in turn sorts by all of them.
+     *
+     * @param table the dataset the rows belong to
+     * @param rows the rows to sort
+     * @param metric the column to sort by, or null to sort by date
+     * @param descending true to put the largest values first
+     * @return the rows in sorted order
+     */
+    public static int[] sortRows(CovidDataTable table, int[] rows, CovidMetric metric, boolean descending)
+    {
+        int[] column = metric == null ? table.getDateColumn() : table.getColumn(metric);
+        int[] keys = new int[rows.length];
+        for (int i = 0; i < rows.length; i++)
+        {
+            keys[i] = column[rows[i]];
+        }
+        int[] order = RecordSorter.sortedOrder(keys, descending);
+        int[] sorted = new int[rows.length];
+        for (int i = 0; i < rows.length; i++)
+        {
+            sorted[i] = rows[order[i]];
+        }
+        return sorted;
+    }
+
+    /**
+     * Creates the classifier the map uses to split the boroughs into its colors. Fixed thresholds come from
+     * CovidMetric.getMapBreaks(). A metric without MAP_CLASS_COUNT - 1 of them is split into quantiles instead, and
+     * the classifier's method says so.
+     *
+     * @param metric the metric the map is colored by
+     * @param method how the color classes are worked out
+     * @return a classifier with MAP_CLASS_COUNT classes
+     */
+    public static ChoroplethClassifier mapClassifier(CovidMetric metric, ChoroplethClassifier.Method method)
+    {
+        if (method == ChoroplethClassifier.Method.FIXED)
+        {
+            double[] breaks = metric.getMapBreaks();
+            if (breaks == null || breaks.length != MAP_CLASS_COUNT - 1)
+            {
+                return new ChoroplethClassifier(ChoroplethClassifier.Method.QUANTILE, MAP_CLASS_COUNT);
+            }
+            return new ChoroplethClassifier(method, MAP_CLASS_COUNT, breaks);
+        }
+        return new ChoroplethClassifier(method, MAP_CLASS_COUNT);
+    }
+
+    /**
+     * Describes the answer to a query as one JSON object, with the range, borough, number of rows and every
+     * statistic. Values that do not exist, such as the mean of no rows, are null.
+     *
+     * @param result the answer to describe
+     * @return the JSON object
+     */
+    public String toJson(AggregationResult result)
+    {
+        AggregationQuery query = result.getQuery();
+        StringBuilder json = new StringBuilder(64 + 64 * query.size());
+        json.append("{\"start\":\"").append(EpochDays.format(query.getStartDay()))
+            .append("\",\"end\":\"").append(EpochDays.format(query.getEndDay()))
+            .append("\",\"borough\":").append(jsonString(boroughName(query.getBoroughId())))
+            .append(",\"rows\":").append(result.getRowCount()).append(",\"statistics\":[");
+        for (int i = 0; i < query.size(); i++)
+        {
+            json.append(i == 0 ? "" : ",").append("{\"metric\":\"").append(query.getMetric(i))
+                .append("\",\"function\":\"").append(query.getFunction(i))
+                .append("\",\"value\":").append(jsonNumber(result.getValue(i))).append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * Formats a value, leaving off the decimal point of whole numbers such as sums and counts.
+     *
+     * @param value a value that is not NaN
+     * @return the value as text
+     */
+    public static String formatNumber(double value)
+    {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15)
+        {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    /**
+     * @return the value as a JSON number, or null if it is NaN or infinite, which JSON cannot hold
+     */
+    public static String jsonNumber(double value)
+    {
+        return Double.isNaN(value) || Double.isInfinite(value) ? "null" : formatNumber(value);
+    }
+
+    /**
+     * @return the text quoted as a JSON string
+     */
+    public static String jsonString(String text)
+    {
+        StringBuilder json = new StringBuilder(text.length() + 2).append('"');
+        for (int i = 0; i < text.length(); i++)
+        {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\')
+            {
+                json.append('\\').append(c);
+            }
+            else if (c < ' ')
+            {
+                json.append(String.format("\\u%04x", (int) c));
+            }
+            else
+            {
+                json.append(c);
+            }
+        }
+        return json.append('"').toString();
+    }
+
+    /**
+     * Finds a borough by name, ignoring case.
+     *
+     * @param name the name of a borough, or ALL (or an empty name) for the whole of London
+     * @return the id of the borough, or AggregationQuery.ALL_BOROUGHS
+     * @throws IllegalArgumentException if the dataset has no such borough
+     */
+    public int boroughId(String name)
+    {
+        String trimmed = name == null ? "" : name.trim();
+        if (trimmed.isEmpty() || trimmed.equalsIgnoreCase(ALL_BOROUGHS_NAME))
+        {
+            return AggregationQuery.ALL_BOROUGHS;
+        }
+        int id = table.getBoroughId(trimmed);
+        for (int borough = 0; id < 0 && borough < table.getBoroughCount(); borough++)
+        {
+            if (table.getBoroughName(borough).equalsIgnoreCase(trimmed))
+            {
+                id = borough;
+            }
+        }
+        if (id < 0)
+        {
+            throw new IllegalArgumentException("Unknown borough \"" + trimmed + "\"");
+        }
+        return id;
+    }
+
+    /**
+     * @param boroughId the id of a borough, or AggregationQuery.ALL_BOROUGHS
+     * @return the name of the borough, or ALL for the whole of London
+     */
+    public String boroughName(int boroughId)
+    {
+        return boroughId == AggregationQuery.ALL_BOROUGHS ? ALL_BOROUGHS_NAME : table.getBoroughName(boroughId);
+    }
+
+    /**
+     * Reads a date.
+     *
+     * @param date a yyyy-MM-dd date
+     * @return the epoch day of the date
+     * @throws IllegalArgumentException if the text is not a valid date
+     */
+    public static int parseDay(String date)
+    {
+        try
+        {
+            return EpochDays.parse(date.trim());
+        }
+        catch (RuntimeException e)
+        {
+            throw new IllegalArgumentException("Not a yyyy-MM-dd date: \"" + date.trim() + "\"");
+        }
+    }
+
+    /**
+     * Reads a metric by its constant name, such as NEW_CASES, or by its csv column title, such as new_cases.
+     *
+     * @throws IllegalArgumentException if there is no such metric
+     */
+    public static CovidMetric parseMetric(String name)
+    {
+        String trimmed = name.trim();
+        for (CovidMetric metric : CovidMetric.values())
+        {
+            if (metric.name().equalsIgnoreCase(trimmed) || metric.getColumnName().equalsIgnoreCase(trimmed))
+            {
+                return metric;
+            }
+        }
+        throw new IllegalArgumentException("Unknown metric \"" + trimmed + "\"");
+    }
+
+    /**
+     * Reads an aggregate function by name, such as SUM or mean.
+     *
+     * @throws IllegalArgumentException if there is no such function
+     */
+    public static AggregateFunction parseFunction(String name)
+    {
+        try
+        {
+            return AggregateFunction.valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new IllegalArgumentException("Unknown aggregate function \"" + name.trim() + "\"");
+        }
+    }
+
+    /**
+     * Adds statistics written as text to a query.
+     *
+     * @param query the query to add to
+     * @param statistics METRIC:FUNCTION pairs separated by spaces, commas or semicolons, such as "NEW_CASES:SUM TOTAL_DEATHS:MAX"
+     * @return the query
+     * @throws IllegalArgumentException if a statistic cannot be read
+     */
+    public static AggregationQuery addStatistics(AggregationQuery query, String statistics)
+    {
+        for (String statistic : STATISTIC_SEPARATOR.split(statistics.trim()))
+        {
+            if (statistic.isEmpty())
+            {
+                continue;
+            }
+            int colon = statistic.indexOf(':');
+            if (colon < 0)
+            {
+                throw new IllegalArgumentException("Expected METRIC:FUNCTION but found \"" + statistic + "\"");
+            }
+            query.add(parseMetric(statistic.substring(0, colon)), parseFunction(statistic.substring(colon + 1)));
+        }
+        return query;
+    }
+}
@@ -0,0 +1,70 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * The CovidRowSpliterator class turns the rows of a CovidCsvParser into CovidData records, parsing each row only when
+ * the next record is asked for. Only the current row is held in memory, so a Stream built on it can filter or
+ * aggregate a file of any size, and a short-circuiting operation such as findFirst() or anyMatch() stops reading the
+ * file as soon as it has its answer.
+ *
+ * The rows come out in file order. The spliterator cannot be split, so streams built on it run sequentially.
+ */
+public class CovidRowSpliterator implements Spliterator<CovidData>
+{
+    private final CovidCsvParser parser;
+
+    /**
+     * @param parser the parser to read rows from
+     */
+    public CovidRowSpliterator(CovidCsvParser parser)
+    {
+        this.parser = parser;
+    }
+
+    /**
+     * @throws UncheckedIOException if the data cannot be read
+     */
+    @Override
+    public boolean tryAdvance(Consumer<? super CovidData> action)
+    {
+        try
+        {
+            if (!parser.nextRow())
+            {
+                return false;
+            }
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        int[] values = parser.getValues();
+        action.accept(new CovidData(parser.getDate(), parser.getBorough(),
+            values[CovidMetric.RETAIL_RECREATION_GMR.ordinal()], values[CovidMetric.GROCERY_PHARMACY_GMR.ordinal()],
+            values[CovidMetric.PARKS_GMR.ordinal()], values[CovidMetric.TRANSIT_GMR.ordinal()],
+            values[CovidMetric.WORKPLACES_GMR.ordinal()], values[CovidMetric.RESIDENTIAL_GMR.ordinal()],
+            values[CovidMetric.NEW_CASES.ordinal()], values[CovidMetric.TOTAL_CASES.ordinal()],
+            values[CovidMetric.NEW_DEATHS.ordinal()], values[CovidMetric.TOTAL_DEATHS.ordinal()]));
+        return true;
+    }
+
+    @Override
+    public Spliterator<CovidData> trySplit()
+    {
+        return null;
+    }
+
+    @Override
+    public long estimateSize()
+    {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics()
+    {
+        return ORDERED | NONNULL;
+    }
+}
@@ -0,0 +1,16 @@
+/**
+ * A CovidRowVisitor is handed the rows of the dataset one at a time as they are parsed.
+ * The values array is reused for every row, so a visitor that wants to keep the values must copy them.
+ */
+public interface CovidRowVisitor
+{
+    /**
+     * Handles one row.
+     *
+     * @param epochDay the date of the row, as an epoch day
+     * @param borough the name of the borough of the row. The same String object is passed for every row of a borough
+     * @param values the value of every metric, in CovidMetric order
+     * @return true to carry on, or false to stop parsing after this row
+     */
+    boolean visit(int epochDay, String borough, int[] values);
+}
@@ -0,0 +1,213 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The CovidSnapshot class saves a CovidDataTable to a compact binary file and opens it again through a memory
+ * mapping, so the dataset can be loaded without parsing any text.
+ *
+ * A snapshot records the size and last-modified time of the csv file it was made from. If either no longer matches
+ * the csv file, the snapshot is out of date and is ignored.
+ *
+ * The layout of a snapshot, in little-endian order, is:
+ * <pre>
+ *   int    magic number
+ *   int    format version
+ *   long   size of the csv file
+ *   long   last-modified time of the csv file
+ *   int    number of rows
+ *   int    number of metric columns
+ *   int    number of boroughs
+ *   for each borough: a short byte length, then the UTF-8 bytes of its name
+ *   padding up to a multiple of 4 bytes
+ *   int[]  date column (epoch days), in date order
+ *   int[]  borough id column
+ *   int[]  one column per metric, in CovidMetric order
+ * </pre>
+ */
+public class CovidSnapshot
+{
+    private static final int MAGIC = 0x43564453; // "CVDS"
+    private static final int VERSION = 1;
+
+    /**
+     * Works out where the snapshot of a csv file lives: next to the csv file, with the extension changed.
+     *
+     * @param csvFile the csv file
+     * @return the snapshot file for the csv file
+     */
+    public static File snapshotFileFor(File csvFile)
+    {
+        String name = csvFile.getName();
+        int dot = name.lastIndexOf('.');
+        return new File(csvFile.getParentFile(), (dot > 0 ? name.substring(0, dot) : name) + ".snapshot");
+    }
+
+    /**
+     * Opens a snapshot, if it exists and still matches the csv file it was made from.
+     *
+     * @param snapshotFile the snapshot to open
+     * @param csvFile the csv file the snapshot should have been made from
+     * @return the table held in the snapshot, or null if there is no usable snapshot
+     */
+    public static CovidDataTable read(File snapshotFile, File csvFile)
+    {
+        if (!snapshotFile.isFile())
+        {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ))
+        {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            if (mapped.remaining() < 36 || mapped.getInt() != MAGIC || mapped.getInt() != VERSION
+                || mapped.getLong() != csvFile.length() || mapped.getLong() != csvFile.lastModified())
+            {
+                return null;
+            }
+            int rowCount = mapped.getInt();
+            int columnCount = mapped.getInt();
+            int boroughCount = mapped.getInt();
+            if (columnCount != CovidMetric.values().length || rowCount < 0 || boroughCount < 0)
+            {
+                return null;
+            }
+
+            String[] boroughNames = new String[boroughCount];
+            for (int id = 0; id < boroughCount; id++)
+            {
+                byte[] name = new byte[mapped.getShort() & 0xFFFF];
+                mapped.get(name);
+                boroughNames[id] = new String(name, StandardCharsets.UTF_8);
+            }
+            mapped.position((mapped.position() + 3) & ~3);
+            if (mapped.remaining() != (long) rowCount * (columnCount + 2) * 4)
+            {
+                return null;
+            }
+
+            IntBuffer ints = mapped.asIntBuffer();
+            int[] dates = new int[rowCount];
+            int[] boroughIds = new int[rowCount];
+            int[][] columns = new int[columnCount][rowCount];
+            ints.get(dates);
+            ints.get(boroughIds);
+            for (int c = 0; c < columnCount; c++)
+            {
+                ints.get(columns[c]);
+            }
+            return CovidDataTable.fromSortedColumns(rowCount, dates, boroughIds, boroughNames, columns);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            // A damaged snapshot is no worse than a missing one, the csv file is parsed instead
+            CovidDataLoader.problem("Ignoring unreadable snapshot " + snapshotFile + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Reads how many rows a snapshot holds, without checking whether it still matches its csv file.
+     *
+     * @param snapshotFile the snapshot to look at
+     * @return the number of rows, or -1 if there is no readable snapshot
+     */
+    public static int rowCount(File snapshotFile)
+    {
+        if (!snapshotFile.isFile())
+        {
+            return -1;
+        }
+        try (FileChannel channel = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ))
+        {
+            ByteBuffer header = ByteBuffer.allocate(28).order(ByteOrder.LITTLE_ENDIAN);
+            if (channel.read(header, 0) < 28 || header.getInt(0) != MAGIC || header.getInt(4) != VERSION)
+            {
+                return -1;
+            }
+            return header.getInt(24);
+        }
+        catch (IOException e)
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * Saves a table to a snapshot. The snapshot is written to a temporary file first and then moved into place,
+     * so a half-written snapshot is never seen.
+     *
+     * @param snapshotFile the snapshot to write
+     * @param table the table to save
+     * @param csvLength the length of the csv file the table was loaded from, taken before it was read
+     * @param csvLastModified the last modified time of the csv file, taken before it was read
+     * @throws IOException if the snapshot cannot be written
+     */
+    public static void write(File snapshotFile, CovidDataTable table, long csvLength, long csvLastModified) throws IOException
+    {
+        int rowCount = table.getRowCount();
+        byte[][] names = new byte[table.getBoroughCount()][];
+        int headerSize = 36;
+        for (int id = 0; id < names.length; id++)
+        {
+            names[id] = table.getBoroughName(id).getBytes(StandardCharsets.UTF_8);
+            headerSize += 2 + names[id].length;
+        }
+        headerSize = (headerSize + 3) & ~3;
+
+        ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putLong(csvLength);
+        header.putLong(csvLastModified);
+        header.putInt(rowCount);
+        header.putInt(CovidMetric.values().length);
+        header.putInt(names.length);
+        for (byte[] name : names)
+        {
+            header.putShort((short) name.length);
+            header.put(name);
+        }
+        header.position(headerSize);
+        header.flip();
+
+        File temp = new File(snapshotFile.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            writeFully(channel, header);
+            ByteBuffer column = ByteBuffer.allocate(rowCount * 4).order(ByteOrder.LITTLE_ENDIAN);
+            writeColumn(channel, column, table.getDateColumn(), rowCount);
+            writeColumn(channel, column, table.getBoroughColumn(), rowCount);
+            for (CovidMetric metric : CovidMetric.values())
+            {
+                writeColumn(channel, column, table.getColumn(metric), rowCount);
+            }
+        }
+        Files.move(temp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeColumn(FileChannel channel, ByteBuffer buffer, int[] values, int rowCount) throws IOException
+    {
+        buffer.clear();
+        buffer.asIntBuffer().put(values, 0, rowCount);
+        buffer.limit(rowCount * 4);
+        writeFully(channel, buffer);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+    }
+}
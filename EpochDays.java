@@ -0,0 +1,215 @@
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+
+/**
+ * The EpochDays class converts between yyyy-MM-dd dates and epoch days, the number of days since 1970-01-01, which is
+ * how every date is held throughout the application. Dates are parsed once when the data is read, compared and
+ * searched as plain ints, and only turned back into text when they are shown to the user.
+ *
+ * Parsing reads the digits directly and creates no objects, and both directions use the civil calendar arithmetic
+ * of the proleptic Gregorian calendar, so they agree exactly with LocalDate.
+ */
+public final class EpochDays
+{
+    /**
+     * The class only has static methods.
+     */
+    private EpochDays()
+    {
+    }
+
+    /**
+     * Parses a yyyy-MM-dd date.
+     *
+     * @param date the date
+     * @return the epoch day of the date
+     * @throws DateTimeException if the text is not a valid yyyy-MM-dd date
+     */
+    public static int parse(CharSequence date)
+    {
+        if (date.length() != 10 || date.charAt(4) != '-' || date.charAt(7) != '-')
+        {
+            throw invalid(date);
+        }
+        int year = digits(date, 0, 4);
+        int month = digits(date, 5, 7);
+        int day = digits(date, 8, 10);
+        if (year < 0 || month < 0 || day < 0)
+        {
+            throw invalid(date);
+        }
+        return fromFields(year, month, day, date);
+    }
+
+    /**
+     * Parses a yyyy-MM-dd date held as ASCII bytes.
+     *
+     * @param bytes the bytes holding the date
+     * @param start the index of the first byte of the date
+     * @param end the index just after the last byte of the date
+     * @return the epoch day of the date
+     * @throws DateTimeException if the bytes are not a valid yyyy-MM-dd date
+     */
+    public static int parse(byte[] bytes, int start, int end)
+    {
+        if (end - start != 10 || bytes[start + 4] != '-' || bytes[start + 7] != '-')
+        {
+            throw invalid(new String(bytes, start, end - start, StandardCharsets.ISO_8859_1));
+        }
+        int year = digits(bytes, start, start + 4);
+        int month = digits(bytes, start + 5, start + 7);
+        int day = digits(bytes, start + 8, start + 10);
+        if (year < 0 || month < 0 || day < 0)
+        {
+            throw invalid(new String(bytes, start, end - start, StandardCharsets.ISO_8859_1));
+        }
+        return fromFields(year, month, day, null);
+    }
+
+    /**
+     * Works out the epoch day of a date.
+     *
+     * @param year the year
+     * @param month the month, from 1 to 12
+     * @param day the day of the month, from 1
+     * @return the epoch day of the date
+     * @throws DateTimeException if there is no such date
+     */
+    public static int of(int year, int month, int day)
+    {
+        return fromFields(year, month, day, null);
+    }
+
+    /**
+     * Formats an epoch day as a yyyy-MM-dd date, for showing to the user.
+     *
+     * @param epochDay the epoch day, for a year from 0 to 9999
+     * @return the date
+     */
+    public static String format(int epochDay)
+    {
+        int civil = toCivil(epochDay);
+        int year = civil >> 9;
+        int month = (civil >> 5) & 15;
+        int day = civil & 31;
+
+        char[] text = new char[10];
+        text[0] = (char) ('0' + year / 1000 % 10);
+        text[1] = (char) ('0' + year / 100 % 10);
+        text[2] = (char) ('0' + year / 10 % 10);
+        text[3] = (char) ('0' + year % 10);
+        text[4] = '-';
+        text[5] = (char) ('0' + month / 10);
+        text[6] = (char) ('0' + month % 10);
+        text[7] = '-';
+        text[8] = (char) ('0' + day / 10);
+        text[9] = (char) ('0' + day % 10);
+        return new String(text);
+    }
+
+    /**
+     * Works out which month a day falls in, counting months from January of year 0. Consecutive months have
+     * consecutive numbers, so months can be compared and stepped through as plain ints.
+     *
+     * @param epochDay the epoch day
+     * @return the number of the month of the day
+     */
+    public static int monthOf(int epochDay)
+    {
+        int civil = toCivil(epochDay);
+        return (civil >> 9) * 12 + ((civil >> 5) & 15) - 1;
+    }
+
+    /**
+     * @param month a month number, as returned by monthOf()
+     * @return the epoch day of the first day of the month
+     */
+    public static int firstDayOfMonth(int month)
+    {
+        return of(Math.floorDiv(month, 12), Math.floorMod(month, 12) + 1, 1);
+    }
+
+    /**
+     * Splits an epoch day into its year, month and day, packed into one int as year * 512 + month * 32 + day.
+     */
+    private static int toCivil(int epochDay)
+    {
+        // Days since 0000-03-01, split into 400-year eras so the leap years repeat exactly
+        int days = epochDay + 719468;
+        int era = Math.floorDiv(days, 146097);
+        int dayOfEra = days - era * 146097;
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int shiftedMonth = (5 * dayOfYear + 2) / 153; // 0 for March up to 11 for February
+        int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        return (year << 9) | (month << 5) | day;
+    }
+
+    /**
+     * @param date the text the fields came from, for the error message, or null
+     */
+    private static int fromFields(int year, int month, int day, CharSequence date)
+    {
+        if (month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month))
+        {
+            throw date != null ? invalid(date) : new DateTimeException("Invalid date " + year + "-" + month + "-" + day);
+        }
+        // Count from 0000-03-01, so that February, with its leap day, is the last month of the year
+        int y = month <= 2 ? year - 1 : year;
+        int era = Math.floorDiv(y, 400);
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static int lengthOfMonth(int year, int month)
+    {
+        switch (month)
+        {
+            case 2: return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+            case 4: case 6: case 9: case 11: return 30;
+            default: return 31;
+        }
+    }
+
+    /**
+     * @return the number held in the digits from start up to end, or -1 if any of them is not a digit
+     */
+    private static int digits(CharSequence text, int start, int end)
+    {
+        int value = 0;
+        for (int i = start; i < end; i++)
+        {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9)
+            {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static int digits(byte[] bytes, int start, int end)
+    {
+        int value = 0;
+        for (int i = start; i < end; i++)
+        {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9)
+            {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static DateTimeException invalid(CharSequence date)
+    {
+        return new DateTimeException("Not a yyyy-MM-dd date: \"" + date + "\"");
+    }
+}
@@ -2,73 +2,144 @@ import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.geometry.Insets;
 import javafx.scene.control.Button;
+import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.Label;
 import javafx.scene.layout.GridPane;
+import javafx.scene.layout.VBox;
+import javafx.util.StringConverter;
 import java.util.ArrayList;
 import javafx.scene.layout.BorderPane;
 
 /**
  * This class shows a map with buttons corresponding to each borough of London.
  * Users can click on a button to view data for the selected borough within a specified date range.
- * It assigns a color based on the number of total deaths due to Covid-19 in that borough.
+ * It assigns a color based on the number of total deaths due to Covid-19 in that borough by the end of the date range.
+ * The user can also color the map by any other value, with the color classes worked out from the values themselves.
  *
  * @author (Kyran Bailey)
  */
 public class Map
 {
+    // The boroughs of London, in the order their buttons are placed on the grid
+    private static final String[] BOROUGHS = {"Enfield", "Barnet", "Haringey", "Waltham Forest", "Harrow", "Brent", "Camden", "Islington", "Hackney", "Redbridge",
+        "Havering", "Hillingdon", "Ealing", "Kensington And Chelsea", "Westminster", "Tower Hamlets", "Newham", "Barking And Dagenham", "Hounslow",
+        "Hammersmith And Fulham", "Wandsworth", "City Of London", "Greenwich", "Bexley", "Richmond Upon Thames", "Merton", "Lambeth", "Southwark", "Lewisham", 
+        "Kingston Upon Thames", "Sutton", "Croydon", "Bromley"};
+    
+    // The colors of the classes, from the lowest values to the highest, one for each of CovidQueryService.MAP_CLASS_COUNT
+    private static final String[] CLASS_COLORS = {"lightGreen", "orange", "#FF0000"};
+    
+    private int startDay;
+    private int endDay;
+    private Label label;
+    private ArrayList<Button> buttons;
+    private ChoiceBox<CovidMetric> metricChoiceBox;
+    private ChoiceBox<ChoroplethClassifier.Method> methodChoiceBox;
+    
     /**
      * Constructs a Map object with the given start date, end date, and root BorderPane.
      * 
-     * @param startDate The start date of the selected date range.
-     * @param endDate The end date of the selected date range.
+     * @param startDay The first day of the selected date range, as an epoch day.
+     * @param endDay The last day of the selected date range, as an epoch day.
+     * @param root The BorderPane to which the map layout will be added.
+     */
+    public Map(int startDay, int endDay, BorderPane root)
+    {
+        this(startDay, endDay, calculateValues(CovidMetric.TOTAL_DEATHS, startDay, endDay), root);
+    }
+    
+    /**
+     * Constructs a Map object from death totals that have already been calculated, for example on a background thread.
+     * 
+     * @param startDay The first day of the selected date range, as an epoch day.
+     * @param endDay The last day of the selected date range, as an epoch day.
+     * @param deaths The total deaths of each borough, as returned by calculateValues() for total deaths and the same date range.
      * @param root The BorderPane to which the map layout will be added.
      */
-    public Map(String startDate, String endDate, BorderPane root)
+    public Map(int startDay, int endDay, double[] deaths, BorderPane root)
     {
+        this(startDay, endDay, CovidMetric.TOTAL_DEATHS, ChoroplethClassifier.Method.FIXED, deaths, root);
+    }
+    
+    /**
+     * Constructs a Map object colored by a given value and way of working out the color classes, for example to
+     * keep the choices of a map that is being replaced.
+     * 
+     * @param startDay The first day of the selected date range, as an epoch day.
+     * @param endDay The last day of the selected date range, as an epoch day.
+     * @param metric The value the map is colored by.
+     * @param method How the color classes are worked out.
+     * @param values The value of each borough, as returned by calculateValues() for the metric and the same date range.
+     * @param root The BorderPane to which the map layout will be added.
+     */
+    public Map(int startDay, int endDay, CovidMetric metric, ChoroplethClassifier.Method method, double[] values, BorderPane root)
+    {
+        this.startDay = startDay;
+        this.endDay = endDay;
+        
         // Creating a label telling the user what to do and what the colors indicate
-        Label label = new Label("Choose a borough to view data \n red: >1000 deaths \n orange: >500 deaths \n green: low deaths ");
-        label.setStyle("-fx-font-size: 14px; -fx-background-color: #F4F4F4; -fx-pref-width: 210px; -fx-pref-height: 400px;");
+        label = new Label();
+        label.setStyle("-fx-font-size: 14px; -fx-background-color: #F4F4F4; -fx-pref-width: 210px; -fx-pref-height: 320px;");
         
-        // Load Covid data
-        CovidDataLoader records = new CovidDataLoader();
-        ArrayList<CovidData> recordList = records.load();
-        ArrayList<Button> buttons = new ArrayList<>();
-        String[] boroughs = {"Enfield", "Barnet", "Haringey", "Waltham Forest", "Harrow", "Brent", "Camden", "Islington", "Hackney", "Redbridge",
-            "Havering", "Hillingdon", "Ealing", "Kensington And Chelsea", "Westminster", "Tower Hamlets", "Newham", "Barking And Dagenham", "Hounslow",
-            "Hammersmith And Fulham", "Wandsworth", "City Of London", "Greenwich", "Bexley", "Richmond Upon Thames", "Merton", "Lambeth", "Southwark", "Lewisham", 
-            "Kingston Upon Thames", "Sutton", "Croydon", "Bromley"};
+        // Choices for the value the map is colored by, and how the color classes are worked out
+        metricChoiceBox = new ChoiceBox<>();
+        metricChoiceBox.getItems().addAll(CovidMetric.values());
+        metricChoiceBox.setConverter(new StringConverter<CovidMetric>() {
+            @Override
+            public String toString(CovidMetric metric) {
+                return metric == null ? "" : metric.getDisplayName();
+            }
+            
+            @Override
+            public CovidMetric fromString(String name) {
+                return null;
+            }
+        });
+        metricChoiceBox.setValue(metric);
+        
+        methodChoiceBox = new ChoiceBox<>();
+        methodChoiceBox.getItems().addAll(ChoroplethClassifier.Method.values());
+        methodChoiceBox.setConverter(new StringConverter<ChoroplethClassifier.Method>() {
+            @Override
+            public String toString(ChoroplethClassifier.Method method) {
+                return method == null ? "" : method.getDisplayName();
+            }
+            
+            @Override
+            public ChoroplethClassifier.Method fromString(String name) {
+                return null;
+            }
+        });
+        methodChoiceBox.setValue(method);
+        
+        // Re-color the map straight away whenever a choice changes
+        metricChoiceBox.setOnAction(event -> recolor(metricChoiceBox.getValue(), methodChoiceBox.getValue(),
+            calculateValues(metricChoiceBox.getValue(), startDay, endDay)));
+        methodChoiceBox.setOnAction(event -> recolor(metricChoiceBox.getValue(), methodChoiceBox.getValue(),
+            calculateValues(metricChoiceBox.getValue(), startDay, endDay)));
+        
+        VBox legend = new VBox(5, label, metricChoiceBox, methodChoiceBox);
+        
+        buttons = new ArrayList<>();
         
         // Create buttons for each borough
-        for (int i = 0; i < boroughs.length; i++) {
-            Button button = new Button(boroughs[i]);
+        for (int i = 0; i < BOROUGHS.length; i++) {
+            Button button = new Button(BOROUGHS[i]);
             buttons.add(button);
             
             // Set action event for each button
-            buttons.get(i).setOnAction(event -> select(button.getText(), startDate, endDate));
-            
-            // Set button color based on total deaths
-            for (CovidData rec : recordList) {
-                if (boroughs[i].equals(rec.getBorough())) {
-                    if (rec.getTotalDeaths() > 1000) {
-                        buttons.get(i).setStyle("-fx-background-color: #FF0000; -fx-font-size: 16px; -fx-pref-width: 210px;");
-                    }
-                    else if (rec.getTotalDeaths() > 500) {
-                        buttons.get(i).setStyle("-fx-background-color: orange; -fx-font-size: 16px; -fx-pref-width: 210px;");
-                    }
-                    else {
-                        buttons.get(i).setStyle("-fx-background-color: lightGreen; -fx-font-size: 16px; -fx-pref-width: 210px;");
-                    }
-                    break;
-                }
-            }
+            buttons.get(i).setOnAction(event -> select(button.getText(), startDay, endDay));
         }
         
+        // Set button color based on the chosen value
+        recolor(metric, method, values);
+        
         // Create a new grid pane
         GridPane map = new GridPane();
         map.setPadding(new Insets(10, 10, 10, 10));
         
         // Adding label and buttons to grid pane
-        map.add(label, 0, 0);
+        map.add(legend, 0, 0);
         map.add(buttons.get(0), 3, 0);
         map.add(buttons.get(1), 2, 1);
         map.add(buttons.get(2), 3, 1);
@@ -109,14 +180,114 @@ public class Map
         root.setCenter(map);
     }
     
+    /**
+     * @return The value the map is colored by, as chosen by the user.
+     */
+    public CovidMetric getMetric()
+    {
+        return metricChoiceBox.getValue();
+    }
+    
+    /**
+     * @return How the color classes are worked out, as chosen by the user.
+     */
+    public ChoroplethClassifier.Method getMethod()
+    {
+        return methodChoiceBox.getValue();
+    }
+    
+    /**
+     * Colors the borough buttons and updates the legend.
+     * 
+     * @param metric The value the map is colored by.
+     * @param method How the color classes are worked out.
+     * @param values The value of each borough, in the same order as the buttons.
+     */
+    private void recolor(CovidMetric metric, ChoroplethClassifier.Method method, double[] values)
+    {
+        ChoroplethClassifier classifier = createClassifier(metric, method);
+        double[] breaks = classifier.computeBreaks(values);
+        int[] classes = ChoroplethClassifier.classify(values, breaks);
+        
+        for (int i = 0; i < buttons.size(); i++) {
+            if (classes[i] >= 0) {
+                buttons.get(i).setStyle("-fx-background-color: " + CLASS_COLORS[classes[i]] + "; -fx-font-size: 16px; -fx-pref-width: 210px;");
+            }
+            else {
+                buttons.get(i).setStyle("-fx-font-size: 16px; -fx-pref-width: 210px;");
+            }
+        }
+        
+        String unit = metric == CovidMetric.TOTAL_DEATHS ? " deaths" : "";
+        label.setText("Choose a borough to view data \n " + metric.getDisplayName() + ": \n red: >" + format(breaks[1]) + unit
+            + " \n orange: >" + format(breaks[0]) + unit + " \n green: low" + unit + " ");
+    }
+    
+    /**
+     * Creates the classifier the map uses to split the boroughs into its colors.
+     * 
+     * @param metric The value the map is colored by. Fixed thresholds are only used if the value has them.
+     * @param method How the color classes are worked out.
+     * @return A classifier with one class per map color, with the same classes as the map served by CovidHttpServer.
+     */
+    public static ChoroplethClassifier createClassifier(CovidMetric metric, ChoroplethClassifier.Method method)
+    {
+        return CovidQueryService.mapClassifier(metric, method);
+    }
+    
+    /**
+     * Formats a break for the legend, leaving off the decimals of whole numbers.
+     */
+    private String format(double value)
+    {
+        return value == Math.rint(value) ? String.valueOf((long) value) : String.format("%.1f", value);
+    }
+    
+    /**
+     * Calculates the values used to color each borough. This loads the dataset if it has not been loaded yet
+     * and does not touch the user interface, so it can be run away from the JavaFX application thread.
+     * The values come from the dataset's per-borough indexes, so this is a few lookups per borough.
+     * 
+     * @param metric The value to color the map by.
+     * @param startDay The first day of the selected date range, as an epoch day.
+     * @param endDay The last day of the selected date range, as an epoch day.
+     * @return The value of each borough for the date range, in the same order as the buttons. Boroughs missing
+     * from the dataset get NaN.
+     */
+    public static double[] calculateValues(CovidMetric metric, int startDay, int endDay)
+    {
+        return calculateValues(CovidDataRepository.getInstance().getTable(), metric, startDay, endDay);
+    }
+    
+    /**
+     * Works out the value of a metric for every borough on the map from a given dataset.
+     * 
+     * @param table The dataset to read the values from.
+     * @param metric The metric to work out.
+     * @param startDay The first day of the selected date range, as an epoch day.
+     * @param endDay The last day of the selected date range, as an epoch day.
+     * @return The value of each borough, in the same order as the buttons, or NaN for a borough with no data.
+     */
+    public static double[] calculateValues(CovidDataTable table, CovidMetric metric, int startDay, int endDay)
+    {
+        double[] valuesById = new CovidQueryService(table).boroughValues(metric, startDay, endDay);
+        double[] values = new double[BOROUGHS.length];
+        
+        for (int i = 0; i < BOROUGHS.length; i++) {
+            int boroughId = table.getBoroughId(BOROUGHS[i]);
+            values[i] = boroughId >= 0 ? valuesById[boroughId] : Double.NaN;
+        }
+        return values;
+    }
+    
     /**
      * Method to handle selection of a borough. On clicking the button, user can view data for the borough.
      * 
      * @param borough The name of the selected borough.
-     * @param startDate The start date of the selected date range.
-     * @param endDate The end date of the selected date range.
+     * @param startDay The first day of the selected date range, as an epoch day.
+     * @param endDay The last day of the selected date range, as an epoch day.
      */
-    private void select(String borough, String startDate, String endDate) {
-        Borough boroughData = new Borough(borough, startDate, endDate);
+    private void select(String borough, int startDay, int endDay) {
+        Borough boroughData = new Borough(borough, startDay, endDay);
     }
 }
\ No newline at end of file
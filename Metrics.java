@@ -0,0 +1,351 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The Metrics class records where the application spends its time: how long loading and parsing take and how much
+ * they read, how long each kind of query takes, how long each panel takes to appear, and how well the query cache
+ * is doing. A snapshot of everything recorded can be read with snapshot() or written to a file with dump().
+ *
+ * Recording is switched on with the covid.metrics system property. When it is off, every recording method returns
+ * straight away on a check of a constant, which the JIT removes altogether. Setting covid.metrics.file as well dumps
+ * a snapshot to that file when the application exits.
+ *
+ * The same work is also reported as JDK Flight Recorder events (in the "Covid Tracker" category), which cost
+ * nothing unless a recording is running, whether or not covid.metrics is set.
+ */
+public final class Metrics
+{
+    /**
+     * True if metrics are being recorded.
+     */
+    public static final boolean ENABLED = Boolean.getBoolean("covid.metrics");
+
+    private static final Map<String, Counter> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, Histogram> HISTOGRAMS = new ConcurrentHashMap<>();
+
+    static
+    {
+        String file = System.getProperty("covid.metrics.file");
+        if (ENABLED && file != null)
+        {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try
+                {
+                    dump(new File(file));
+                }
+                catch (IOException e)
+                {
+                    e.printStackTrace();
+                }
+            }, "metrics-dump"));
+        }
+    }
+
+    /**
+     * The class only has static methods.
+     */
+    private Metrics()
+    {
+    }
+
+    /**
+     * @return the current time to pass to Histogram.recordSince(), or 0 if metrics are not being recorded
+     */
+    public static long start()
+    {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * @param name the name of the counter
+     * @return the counter with the name, created the first time it is asked for
+     */
+    public static Counter counter(String name)
+    {
+        return COUNTERS.computeIfAbsent(name, key -> new Counter());
+    }
+
+    /**
+     * @param name the name of the histogram
+     * @return the histogram with the name, created the first time it is asked for
+     */
+    public static Histogram histogram(String name)
+    {
+        return HISTOGRAMS.computeIfAbsent(name, key -> new Histogram());
+    }
+
+    /**
+     * Describes everything recorded so far as JSON: every counter, every histogram with its count, mean, percentiles
+     * and maximum in milliseconds, the rate of loading in rows per second, and the statistics of the shared query
+     * cache.
+     *
+     * @return the snapshot
+     */
+    public static String snapshot()
+    {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"enabled\": ").append(ENABLED).append(",\n  \"timestamp\": ").append(System.currentTimeMillis());
+
+        json.append(",\n  \"counters\": {");
+        String separator = "\n";
+        for (Map.Entry<String, Counter> counter : new TreeMap<>(COUNTERS).entrySet())
+        {
+            json.append(separator).append("    \"").append(counter.getKey()).append("\": ").append(counter.getValue().get());
+            separator = ",\n";
+        }
+        json.append("\n  },\n  \"histograms\": {");
+        separator = "\n";
+        for (Map.Entry<String, Histogram> histogram : new TreeMap<>(HISTOGRAMS).entrySet())
+        {
+            json.append(separator).append("    \"").append(histogram.getKey()).append("\": ").append(histogram.getValue().toJson());
+            separator = ",\n";
+        }
+        json.append("\n  }");
+
+        Histogram parse = HISTOGRAMS.get("load.parse");
+        Counter rows = COUNTERS.get("load.rows");
+        if (parse != null && rows != null && parse.getTotalNanos() > 0)
+        {
+            json.append(",\n  \"load.rowsPerSecond\": ").append(Math.round(rows.get() * 1e9 / parse.getTotalNanos()));
+        }
+
+        QueryCache cache = QueryCache.getShared();
+        json.append(",\n  \"cache\": {\"size\": ").append(cache.size())
+            .append(", \"capacity\": ").append(cache.getCapacity())
+            .append(", \"hits\": ").append(cache.getHits())
+            .append(", \"misses\": ").append(cache.getMisses())
+            .append(", \"evictions\": ").append(cache.getEvictions())
+            .append(", \"hitRate\": ").append(number(cache.getHitRate()))
+            .append("}\n}\n");
+        return json.toString();
+    }
+
+    /**
+     * Writes a snapshot to a file.
+     *
+     * @param file the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public static void dump(File file) throws IOException
+    {
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))
+        {
+            writer.write(snapshot());
+        }
+    }
+
+    /**
+     * Formats a number for JSON, which has no NaN.
+     */
+    static String number(double value)
+    {
+        return Double.isNaN(value) || Double.isInfinite(value) ? "null" : Double.toString(value);
+    }
+
+    /**
+     * The Counter class adds up a count, such as the number of rows read, from any number of threads.
+     */
+    public static final class Counter
+    {
+        private final LongAdder count = new LongAdder();
+
+        public void add(long amount)
+        {
+            if (ENABLED)
+            {
+                count.add(amount);
+            }
+        }
+
+        public void increment()
+        {
+            add(1);
+        }
+
+        public long get()
+        {
+            return count.sum();
+        }
+    }
+
+    /**
+     * The Histogram class records how long something takes. Each time falls into a bucket by its power of two in
+     * nanoseconds, so recording is a few atomic adds, and percentiles are accurate to within a factor of two.
+     */
+    public static final class Histogram
+    {
+        private final AtomicLongArray buckets = new AtomicLongArray(64); // buckets[b] counts times from 2^b up to 2^(b+1) ns
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        /**
+         * Records the time since a start time.
+         *
+         * @param startNanos the time returned by Metrics.start() when the work began
+         */
+        public void recordSince(long startNanos)
+        {
+            if (ENABLED)
+            {
+                record(System.nanoTime() - startNanos);
+            }
+        }
+
+        /**
+         * @param nanos the time to record, in nanoseconds
+         */
+        public void record(long nanos)
+        {
+            if (ENABLED)
+            {
+                long time = Math.max(nanos, 1);
+                buckets.incrementAndGet(63 - Long.numberOfLeadingZeros(time));
+                count.increment();
+                totalNanos.add(time);
+                maxNanos.accumulateAndGet(time, Math::max);
+            }
+        }
+
+        public long getCount()
+        {
+            return count.sum();
+        }
+
+        public long getTotalNanos()
+        {
+            return totalNanos.sum();
+        }
+
+        public long getMaxNanos()
+        {
+            return maxNanos.get();
+        }
+
+        /**
+         * @return the average time in nanoseconds, or NaN if nothing was recorded
+         */
+        public double getMeanNanos()
+        {
+            long n = getCount();
+            return n == 0 ? Double.NaN : (double) getTotalNanos() / n;
+        }
+
+        /**
+         * @param fraction the share of times that should be at or below the answer, such as 0.99
+         * @return an upper bound of that percentile in nanoseconds, or NaN if nothing was recorded
+         */
+        public double percentileNanos(double fraction)
+        {
+            long[] counts = new long[buckets.length()];
+            long total = 0;
+            for (int b = 0; b < counts.length; b++)
+            {
+                counts[b] = buckets.get(b);
+                total += counts[b];
+            }
+            if (total == 0)
+            {
+                return Double.NaN;
+            }
+            long wanted = (long) Math.ceil(fraction * total);
+            long seen = 0;
+            for (int b = 0; b < counts.length; b++)
+            {
+                seen += counts[b];
+                if (seen >= wanted)
+                {
+                    // The top of the bucket, but never above the longest time actually seen
+                    return Math.min(b >= 62 ? Long.MAX_VALUE : (2L << b) - 1, getMaxNanos());
+                }
+            }
+            return getMaxNanos();
+        }
+
+        /**
+         * @return the count of the histogram, with its times in milliseconds, as a JSON object
+         */
+        String toJson()
+        {
+            return "{\"count\": " + getCount()
+                + ", \"meanMs\": " + number(getMeanNanos() / 1e6)
+                + ", \"p50Ms\": " + number(percentileNanos(0.50) / 1e6)
+                + ", \"p90Ms\": " + number(percentileNanos(0.90) / 1e6)
+                + ", \"p99Ms\": " + number(percentileNanos(0.99) / 1e6)
+                + ", \"maxMs\": " + number(getCount() == 0 ? Double.NaN : getMaxNanos() / 1e6) + "}";
+        }
+    }
+
+    /**
+     * Flight Recorder event for loading the dataset, from the csv file, a snapshot or appended rows.
+     */
+    @Name("covid.Load")
+    @Label("Dataset Load")
+    @Category("Covid Tracker")
+    @Description("Loading rows of the Covid London dataset")
+    public static class LoadEvent extends Event
+    {
+        @Label("Source")
+        public String source;
+
+        @Label("Rows")
+        public long rows;
+
+        @Label("Bytes Read")
+        @DataAmount
+        public long bytes;
+    }
+
+    /**
+     * Flight Recorder event for answering an AggregationQuery.
+     */
+    @Name("covid.Query")
+    @Label("Aggregation Query")
+    @Category("Covid Tracker")
+    @Description("Answering the statistics of an aggregation query")
+    public static class QueryEvent extends Event
+    {
+        @Label("Start Day")
+        public int startDay;
+
+        @Label("End Day")
+        public int endDay;
+
+        @Label("Borough Id")
+        public int boroughId;
+
+        @Label("Statistics")
+        public int statistics;
+
+        @Label("From Cache")
+        public boolean cached;
+    }
+
+    /**
+     * Flight Recorder event for building a panel of the main window, from the user's choice until it is shown.
+     */
+    @Name("covid.Panel")
+    @Label("Panel Build")
+    @Category("Covid Tracker")
+    @Description("Building and showing a panel of the main window")
+    public static class PanelEvent extends Event
+    {
+        @Label("Panel")
+        public String panel;
+    }
+}
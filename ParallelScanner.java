@@ -0,0 +1,141 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The ParallelScanner class runs the row passes of the AggregationEngine on a fork-join pool.
+ * The rows are split in half again and again until each piece is no bigger than the threshold, each piece is
+ * gathered on its own, and the pieces are merged back together. Passes over fewer rows than the threshold stay
+ * on the calling thread. Sums are kept as whole numbers, so the merged answer is exactly the same as a
+ * sequential pass.
+ *
+ * The engine only hands row passes to the scanner when it runs with -Dcovid.rollups=false. With the rollups, which
+ * are used by default, a minimum or maximum reads whole weeks and months from the RollupIndex and only a few days of
+ * rows at each end of the range, far fewer than the threshold, so the scanner is not used.
+ *
+ * The shared scanner is set up from the system properties covid.scan.parallelism (default: the number of
+ * processors) and covid.scan.threshold (default: 100000 rows).
+ */
+public class ParallelScanner
+{
+    private static ParallelScanner shared;
+
+    private final ForkJoinPool pool;
+    private final int threshold;
+
+    /**
+     * Creates a scanner with its own pool.
+     *
+     * @param parallelism the number of threads of the pool
+     * @param threshold the largest number of rows gathered on one thread without splitting
+     */
+    public ParallelScanner(int parallelism, int threshold)
+    {
+        if (parallelism < 1 || threshold < 1)
+        {
+            throw new IllegalArgumentException("Parallelism and threshold must be at least 1");
+        }
+        this.pool = new ForkJoinPool(parallelism);
+        this.threshold = threshold;
+    }
+
+    /**
+     * Returns the scanner shared by the whole application, creating it the first time it is asked for.
+     *
+     * @return the shared scanner
+     */
+    public static synchronized ParallelScanner getShared()
+    {
+        if (shared == null)
+        {
+            int parallelism = Integer.getInteger("covid.scan.parallelism", Runtime.getRuntime().availableProcessors());
+            int threshold = Integer.getInteger("covid.scan.threshold", 100000);
+            shared = new ParallelScanner(Math.max(1, parallelism), Math.max(1, threshold));
+        }
+        return shared;
+    }
+
+    public int getParallelism()
+    {
+        return pool.getParallelism();
+    }
+
+    public int getThreshold()
+    {
+        return threshold;
+    }
+
+    /**
+     * Gathers a set of metrics over a run of rows.
+     *
+     * @param table the table holding the rows
+     * @param rows the row indexes to read from, or null to read the table's rows directly
+     * @param from the first position to read
+     * @param to the position after the last one to read
+     * @param metrics the metrics to gather
+     * @return the gathered totals
+     */
+    AggregationEngine.Accumulator scan(CovidDataTable table, int[] rows, int from, int to, CovidMetric[] metrics)
+    {
+        if (to - from <= threshold || pool.getParallelism() == 1)
+        {
+            // Not worth splitting, gather everything on the calling thread
+            return new ScanTask(table, rows, from, to, metrics, Integer.MAX_VALUE).compute();
+        }
+        return pool.invoke(new ScanTask(table, rows, from, to, metrics, threshold));
+    }
+
+    /**
+     * Stops the threads of the pool. The scanner must not be used afterwards.
+     */
+    public void shutdown()
+    {
+        pool.shutdown();
+    }
+
+    /**
+     * The ScanTask class gathers one run of rows, splitting it in two while it is bigger than the threshold.
+     * Tasks only live for the length of one scan and are never serialized.
+     */
+    @SuppressWarnings("serial")
+    private static class ScanTask extends RecursiveTask<AggregationEngine.Accumulator>
+    {
+        private final CovidDataTable table;
+        private final int[] rows;
+        private final int from;
+        private final int to;
+        private final CovidMetric[] metrics;
+        private final int threshold;
+
+        ScanTask(CovidDataTable table, int[] rows, int from, int to, CovidMetric[] metrics, int threshold)
+        {
+            this.table = table;
+            this.rows = rows;
+            this.from = from;
+            this.to = to;
+            this.metrics = metrics;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected AggregationEngine.Accumulator compute()
+        {
+            if (to - from <= threshold)
+            {
+                AggregationEngine.Accumulator accumulator = new AggregationEngine.Accumulator(table, metrics);
+                for (int i = from; i < to; i++)
+                {
+                    accumulator.add(rows == null ? i : rows[i]);
+                }
+                return accumulator;
+            }
+            int mid = (from + to) >>> 1;
+            ScanTask left = new ScanTask(table, rows, from, mid, metrics, threshold);
+            ScanTask right = new ScanTask(table, rows, mid, to, metrics, threshold);
+            left.fork();
+            AggregationEngine.Accumulator rightResult = right.compute();
+            AggregationEngine.Accumulator leftResult = left.join();
+            leftResult.merge(rightResult);
+            return leftResult;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+import java.util.Arrays;
+
+/**
+ * The PrefixSumIndex class holds running totals of every metric of a CovidDataTable, for the whole of London and
+ * for each borough. The sum of a metric over any date range is the difference between two running totals, so
+ * sums, counts and averages over a date range cost two binary searches and two array reads, however long the
+ * range is.
+ *
+ * The index is built once, when its table is built, and never changes afterwards. A table built from an earlier
+ * table plus rows for later days carries the earlier totals on instead of adding everything up again.
+ */
+public class PrefixSumIndex
+{
+    private final CovidDataTable table;
+    // londonSums[metric][row] is the sum of the metric over all rows before row
+    private final long[][] londonSums;
+    // boroughSums[borough][metric][i] is the sum of the metric over the first i rows of the borough
+    private final long[][][] boroughSums;
+
+    /**
+     * Builds the running totals of a table.
+     *
+     * @param table the date-sorted table to index
+     */
+    public PrefixSumIndex(CovidDataTable table)
+    {
+        this(null, table);
+    }
+
+    /**
+     * Builds the running totals of a table that holds every row of an earlier table followed by later rows. The
+     * totals of the earlier table are carried on from where they stopped, in the spare room at the end of its
+     * arrays, so only the later rows are read. The earlier index never reads past its own rows, so it is unchanged.
+     *
+     * @param base the index of the earlier table, or null to build the totals of every row
+     * @param table the date-sorted table to index
+     */
+    PrefixSumIndex(PrefixSumIndex base, CovidDataTable table)
+    {
+        this.table = table;
+        CovidMetric[] metrics = CovidMetric.values();
+        int rowCount = table.getRowCount();
+        int from = base == null ? 0 : base.table.getRowCount();
+
+        londonSums = new long[metrics.length][];
+        for (CovidMetric metric : metrics)
+        {
+            int[] values = table.getColumn(metric);
+            long[] sums = withRoom(base == null ? null : base.londonSums[metric.ordinal()], rowCount + 1);
+            for (int row = from; row < rowCount; row++)
+            {
+                sums[row + 1] = sums[row] + values[row];
+            }
+            londonSums[metric.ordinal()] = sums;
+        }
+
+        boroughSums = new long[table.getBoroughCount()][][];
+        for (int borough = 0; borough < table.getBoroughCount(); borough++)
+        {
+            boolean known = base != null && borough < base.boroughSums.length;
+            int first = known ? base.table.getBoroughRowCount(borough) : 0;
+            int size = table.getBoroughRowCount(borough);
+            if (known && first == size)
+            {
+                boroughSums[borough] = base.boroughSums[borough];
+                continue;
+            }
+            int[] rows = table.getBoroughRows(borough);
+            boroughSums[borough] = new long[metrics.length][];
+            for (CovidMetric metric : metrics)
+            {
+                int[] values = table.getColumn(metric);
+                long[] sums = withRoom(known ? base.boroughSums[borough][metric.ordinal()] : null, size + 1);
+                for (int i = first; i < size; i++)
+                {
+                    sums[i + 1] = sums[i] + values[rows[i]];
+                }
+                boroughSums[borough][metric.ordinal()] = sums;
+            }
+        }
+    }
+
+    /**
+     * @return the array itself if it has room for size entries, otherwise a copy with room to spare
+     */
+    private static long[] withRoom(long[] sums, int size)
+    {
+        if (sums == null)
+        {
+            return new long[size];
+        }
+        return sums.length >= size ? sums : Arrays.copyOf(sums, Math.max(size, sums.length + (sums.length >> 1)));
+    }
+
+    /**
+     * @param metric the metric to add up
+     * @param startDay the first day of the range, as an epoch day
+     * @param endDay the last day of the range, as an epoch day
+     * @return the sum of the metric over every row of London within the range
+     */
+    public long sum(CovidMetric metric, int startDay, int endDay)
+    {
+        int first = table.firstRowOnOrAfter(startDay);
+        int end = Math.max(first, table.firstRowAfter(endDay));
+        long[] sums = londonSums[metric.ordinal()];
+        return sums[end] - sums[first];
+    }
+
+    /**
+     * @param startDay the first day of the range, as an epoch day
+     * @param endDay the last day of the range, as an epoch day
+     * @return the number of rows of London within the range
+     */
+    public int count(int startDay, int endDay)
+    {
+        int first = table.firstRowOnOrAfter(startDay);
+        return Math.max(0, table.firstRowAfter(endDay) - first);
+    }
+
+    /**
+     * @param metric the metric to average
+     * @param startDay the first day of the range, as an epoch day
+     * @param endDay the last day of the range, as an epoch day
+     * @return the average of the metric over every row of London within the range, or NaN if there are no rows
+     */
+    public double mean(CovidMetric metric, int startDay, int endDay)
+    {
+        return (double) sum(metric, startDay, endDay) / count(startDay, endDay);
+    }
+
+    /**
+     * @param metric the metric to add up
+     * @param boroughId the id of the borough
+     * @param startDay the first day of the range, as an epoch day
+     * @param endDay the last day of the range, as an epoch day
+     * @return the sum of the metric over the rows of the borough within the range
+     */
+    public long sum(CovidMetric metric, int boroughId, int startDay, int endDay)
+    {
+        int first = table.firstBoroughRowOnOrAfter(boroughId, startDay);
+        int end = Math.max(first, table.firstBoroughRowAfter(boroughId, endDay));
+        long[] sums = boroughSums[boroughId][metric.ordinal()];
+        return sums[end] - sums[first];
+    }
+
+    /**
+     * @param boroughId the id of the borough
+     * @param startDay the first day of the range, as an epoch day
+     * @param endDay the last day of the range, as an epoch day
+     * @return the number of rows of the borough within the range
+     */
+    public int count(int boroughId, int startDay, int endDay)
+    {
+        int first = table.firstBoroughRowOnOrAfter(boroughId, startDay);
+        return Math.max(0, table.firstBoroughRowAfter(boroughId, endDay) - first);
+    }
+
+    /**
+     * @param metric the metric to average
+     * @param boroughId the id of the borough
+     * @param startDay the first day of the range, as an epoch day
+     * @param endDay the last day of the range, as an epoch day
+     * @return the average of the metric over the rows of the borough within the range, or NaN if there are no rows
+     */
+    public double mean(CovidMetric metric, int boroughId, int startDay, int endDay)
+    {
+        return (double) sum(metric, boroughId, startDay, endDay) / count(boroughId, startDay, endDay);
+    }
+}
@@ -0,0 +1,254 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The QueryCache class remembers the statistics an AggregationEngine had to read rows for, so going back to a date
+ * range that has already been looked at returns them straight away. Only minimums and maximums are kept: sums, means
+ * and counts come from running totals in a couple of array reads, which is quicker than any lookup. Each statistic is
+ * kept under the table it was worked out from, its date range, borough, metric and aggregate function, so statistics
+ * of different tables, such as the shared dataset and the one an open Borough window still shows, never mix.
+ *
+ * The cache holds a fixed number of statistics. It is split into stripes by key, each with its own lock and an equal
+ * share of the room, rounded up, so threads looking up different statistics rarely wait for each other. Eviction is
+ * per stripe: when a stripe is full, the statistic of that stripe that was used least recently is dropped to make
+ * room, even if another stripe holds one that was used less recently. Small caches get fewer stripes, so that a few
+ * unlucky keys landing in the same stripe do not evict each other while the rest of the cache is empty. CovidDataRepository empties the
+ * shared cache whenever the dataset changes, as the statistics of the old table are no longer asked for.
+ *
+ * The cache counts its hits, misses and evictions. It is safe to use from several threads.
+ */
+public class QueryCache
+{
+    /**
+     * The number of statistics the shared cache holds, unless the covid.cache.size system property says otherwise.
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private static final int MAX_STRIPES = 16;
+    private static final int MIN_STRIPE_CAPACITY = 64;
+
+    private static final QueryCache SHARED = new QueryCache(Integer.getInteger("covid.cache.size", DEFAULT_CAPACITY));
+
+    private final int capacity;
+    private final Stripe[] stripes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param capacity the number of statistics to hold, at least 1. With several stripes the cache may hold a few more
+     */
+    public QueryCache(int capacity)
+    {
+        if (capacity < 1)
+        {
+            throw new IllegalArgumentException("A cache must hold at least one statistic");
+        }
+        this.capacity = capacity;
+        // A power of two, so a stripe is picked with a mask, with room for at least MIN_STRIPE_CAPACITY statistics
+        // in each stripe unless the whole cache is smaller than that
+        int stripeCount = Integer.highestOneBit(Math.max(1, Math.min(capacity / MIN_STRIPE_CAPACITY, MAX_STRIPES)));
+        int stripeCapacity = (capacity + stripeCount - 1) / stripeCount;
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++)
+        {
+            stripes[i] = new Stripe(stripeCapacity);
+        }
+    }
+
+    /**
+     * @return the cache shared by the whole application
+     */
+    public static QueryCache getShared()
+    {
+        return SHARED;
+    }
+
+    /**
+     * Looks up a statistic.
+     *
+     * @param table the table the statistic is about
+     * @param startDay the first day of the range, as an epoch day
+     * @param endDay the last day of the range, as an epoch day
+     * @param boroughId the borough, or AggregationQuery.ALL_BOROUGHS
+     * @param metric the metric
+     * @param function the aggregate function
+     * @return the statistic, or null if it is not in the cache
+     */
+    public Double get(CovidDataTable table, int startDay, int endDay, int boroughId, CovidMetric metric, AggregateFunction function)
+    {
+        Key key = new Key(table.getId(), startDay, endDay, boroughId, metric, function);
+        Double value = stripeOf(key).get(key);
+        (value == null ? misses : hits).increment();
+        return value;
+    }
+
+    /**
+     * Adds a statistic, evicting the least recently used one of its stripe if the stripe is full.
+     *
+     * @param table the table the statistic was worked out from
+     * @param value the statistic
+     */
+    public void put(CovidDataTable table, int startDay, int endDay, int boroughId, CovidMetric metric, AggregateFunction function, double value)
+    {
+        Key key = new Key(table.getId(), startDay, endDay, boroughId, metric, function);
+        stripeOf(key).put(key, value);
+    }
+
+    /**
+     * Empties the cache. The counters carry on counting.
+     */
+    public void invalidate()
+    {
+        for (Stripe stripe : stripes)
+        {
+            stripe.clear();
+        }
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    public int size()
+    {
+        int size = 0;
+        for (Stripe stripe : stripes)
+        {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    public long getEvictions()
+    {
+        return evictions.sum();
+    }
+
+    /**
+     * @return the share of lookups that found their statistic, from 0 to 1, or NaN before the first lookup
+     */
+    public double getHitRate()
+    {
+        long found = hits.sum();
+        long lookups = found + misses.sum();
+        return lookups == 0 ? Double.NaN : (double) found / lookups;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "QueryCache[size=" + size() + "/" + capacity + ", hits=" + getHits() + ", misses=" + getMisses()
+            + ", evictions=" + getEvictions() + "]";
+    }
+
+    private Stripe stripeOf(Key key)
+    {
+        int hash = key.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+    }
+
+    /**
+     * The Stripe class holds one share of the statistics, with the least recently used first.
+     */
+    private final class Stripe
+    {
+        private final LinkedHashMap<Key, Double> entries;
+
+        Stripe(int stripeCapacity)
+        {
+            // Access order puts the least recently used statistic first, ready to be evicted
+            this.entries = new LinkedHashMap<Key, Double>(16, 0.75f, true)
+            {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, Double> eldest)
+                {
+                    if (size() > stripeCapacity)
+                    {
+                        evictions.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        synchronized Double get(Key key)
+        {
+            return entries.get(key);
+        }
+
+        synchronized void put(Key key, double value)
+        {
+            entries.put(key, value);
+        }
+
+        synchronized void clear()
+        {
+            entries.clear();
+        }
+
+        synchronized int size()
+        {
+            return entries.size();
+        }
+    }
+
+    /**
+     * The Key class identifies one statistic.
+     */
+    private static final class Key
+    {
+        private final long tableId;
+        private final int startDay;
+        private final int endDay;
+        private final int boroughId;
+        private final CovidMetric metric;
+        private final AggregateFunction function;
+
+        Key(long tableId, int startDay, int endDay, int boroughId, CovidMetric metric, AggregateFunction function)
+        {
+            this.tableId = tableId;
+            this.startDay = startDay;
+            this.endDay = endDay;
+            this.boroughId = boroughId;
+            this.metric = metric;
+            this.function = function;
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            if (!(other instanceof Key))
+            {
+                return false;
+            }
+            Key key = (Key) other;
+            return tableId == key.tableId && startDay == key.startDay && endDay == key.endDay
+                && boroughId == key.boroughId && metric == key.metric && function == key.function;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int hash = Long.hashCode(tableId);
+            hash = hash * 31 + startDay;
+            hash = hash * 31 + endDay;
+            hash = hash * 31 + boroughId;
+            hash = hash * 31 + metric.ordinal();
+            return hash * 31 + function.ordinal();
+        }
+    }
+}
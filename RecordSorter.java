@@ -0,0 +1,41 @@
+import java.util.Arrays;
+
+/**
+ * The RecordSorter class works out the sorted order of a set of whole-number keys, such as one column of the
+ * Borough window's rows. The sort only compares primitive longs: each key is packed together with its original
+ * position, so equal keys keep their original order in both ascending and descending sorts.
+ */
+public class RecordSorter
+{
+    /**
+     * The sorter only has static methods.
+     */
+    private RecordSorter()
+    {
+    }
+
+    /**
+     * Works out the stable sorted order of a set of keys.
+     *
+     * @param keys the keys to sort
+     * @param descending true to put the largest keys first
+     * @return the original positions of the keys, in sorted order
+     */
+    public static int[] sortedOrder(int[] keys, boolean descending)
+    {
+        long[] packed = new long[keys.length];
+        for (int i = 0; i < keys.length; i++)
+        {
+            // ~key reverses the order of the keys and, unlike -key, never overflows
+            int sortKey = descending ? ~keys[i] : keys[i];
+            packed[i] = ((long) sortKey << 32) | i;
+        }
+        Arrays.sort(packed);
+        int[] order = new int[keys.length];
+        for (int i = 0; i < order.length; i++)
+        {
+            order[i] = (int) packed[i];
+        }
+        return order;
+    }
+}
@@ -0,0 +1,276 @@
+/**
+ * The RollingWindowEngine class works out rolling figures, such as the 7-day average of new cases, for every
+ * borough of a CovidDataTable. The window moves forward one day at a time: the day entering the window is added
+ * and the day leaving it is taken away, so each step costs the same however long the window is. The series of every
+ * borough come out of a single pass over the date-ordered rows of the table, and the series of one borough out of a
+ * pass over that borough's rows.
+ *
+ * A window of n days ending on day d covers days d - n + 1 up to d. A borough with no row on some day simply has
+ * nothing added for that day.
+ */
+public class RollingWindowEngine
+{
+    /**
+     * The common window lengths, in days.
+     */
+    public static final int WEEK = 7;
+    public static final int FORTNIGHT = 14;
+    public static final int FOUR_WEEKS = 28;
+
+    private final CovidDataTable table;
+
+    /**
+     * @param table the table to read the rows from
+     */
+    public RollingWindowEngine(CovidDataTable table)
+    {
+        this.table = table;
+    }
+
+    /**
+     * Works out the rolling series of a metric for every borough.
+     *
+     * @param metric the metric to follow
+     * @param windowDays the length of the window, in days
+     * @param startDay the day the first window ends on, as an epoch day
+     * @param endDay the day the last window ends on, as an epoch day
+     * @return the rolling sum, mean and rate of every borough for every day from startDay to endDay
+     */
+    public RollingSeries compute(CovidMetric metric, int windowDays, int startDay, int endDay)
+    {
+        return compute(metric, windowDays, startDay, endDay, AggregationQuery.ALL_BOROUGHS);
+    }
+
+    /**
+     * Works out the rolling series of a metric for one borough, or for every borough. For one borough only that
+     * borough's rows are read.
+     *
+     * @param metric the metric to follow
+     * @param windowDays the length of the window, in days
+     * @param startDay the day the first window ends on, as an epoch day
+     * @param endDay the day the last window ends on, as an epoch day
+     * @param boroughId the borough, or AggregationQuery.ALL_BOROUGHS for every borough
+     * @return the rolling sum, mean and rate of the borough, or of every borough, for every day from startDay to
+     * endDay. RollingSeries.hasBorough() tells which boroughs it has figures for
+     */
+    public RollingSeries compute(CovidMetric metric, int windowDays, int startDay, int endDay, int boroughId)
+    {
+        if (windowDays < 1)
+        {
+            throw new IllegalArgumentException("A window must be at least one day long");
+        }
+        if (endDay < startDay)
+        {
+            throw new IllegalArgumentException("The range ends before it starts");
+        }
+        // The rate compares each window with the one before it, so one extra window is worked out at the start
+        int firstDay = startDay - windowDays;
+        int dayCount = endDay - firstDay + 1;
+        int boroughCount = table.getBoroughCount();
+        boolean allBoroughs = boroughId == AggregationQuery.ALL_BOROUGHS;
+        int[] followed = new int[allBoroughs ? boroughCount : 1]; // The boroughs to work out
+        for (int i = 0; i < followed.length; i++)
+        {
+            followed[i] = allBoroughs ? i : boroughId;
+        }
+        long[][] sums = new long[boroughCount][];
+        int[][] counts = new int[boroughCount][];
+
+        // The total and number of rows of each borough on each day of the current window, by day modulo windowDays
+        long[][] daySums = new long[boroughCount][];
+        int[][] dayCounts = new int[boroughCount][];
+        long[] windowSums = new long[boroughCount];
+        int[] windowCounts = new int[boroughCount];
+        for (int borough : followed)
+        {
+            sums[borough] = new long[dayCount];
+            counts[borough] = new int[dayCount];
+            daySums[borough] = new long[windowDays];
+            dayCounts[borough] = new int[windowDays];
+        }
+
+        int[] values = table.getColumn(metric);
+        int[] dates = table.getDateColumn();
+        int[] boroughIds = table.getBoroughColumn();
+        // The rows are read from the table in date order, or from the borough's own rows
+        int[] rows = allBoroughs ? null : table.getBoroughRows(boroughId);
+        int position = allBoroughs ? table.firstRowOnOrAfter(firstDay - windowDays + 1)
+            : table.firstBoroughRowOnOrAfter(boroughId, firstDay - windowDays + 1);
+        int endPosition = allBoroughs ? table.firstRowAfter(endDay) : table.firstBoroughRowAfter(boroughId, endDay);
+
+        for (int day = firstDay - windowDays + 1; day <= endDay; day++)
+        {
+            int slot = Math.floorMod(day, windowDays);
+            // The day that was in this slot is now leaving the window
+            for (int borough : followed)
+            {
+                windowSums[borough] -= daySums[borough][slot];
+                windowCounts[borough] -= dayCounts[borough][slot];
+                daySums[borough][slot] = 0;
+                dayCounts[borough][slot] = 0;
+            }
+            // The rows of the day entering the window
+            for (; position < endPosition; position++)
+            {
+                int row = rows == null ? position : rows[position];
+                if (dates[row] != day)
+                {
+                    break;
+                }
+                int borough = boroughIds[row];
+                daySums[borough][slot] += values[row];
+                dayCounts[borough][slot]++;
+                windowSums[borough] += values[row];
+                windowCounts[borough]++;
+            }
+            if (day >= firstDay)
+            {
+                int index = day - firstDay;
+                for (int borough : followed)
+                {
+                    sums[borough][index] = windowSums[borough];
+                    counts[borough][index] = windowCounts[borough];
+                }
+            }
+        }
+        return new RollingSeries(metric, windowDays, startDay, endDay - startDay + 1, sums, counts);
+    }
+
+    /**
+     * The RollingSeries class holds the rolling figures of one metric for every borough and every day of a range.
+     * Days are given as an index from 0 for the first day of the range.
+     */
+    public static class RollingSeries
+    {
+        private final CovidMetric metric;
+        private final int windowDays;
+        private final int startDay;
+        private final int dayCount;
+        // sums[borough][windowDays + i] is the window ending on day i of the range. The first windowDays entries are
+        // the windows before the range, kept so the rate of the first days can be worked out. A borough the series
+        // was not worked out for has no arrays
+        private final long[][] sums;
+        private final int[][] counts;
+
+        RollingSeries(CovidMetric metric, int windowDays, int startDay, int dayCount, long[][] sums, int[][] counts)
+        {
+            this.metric = metric;
+            this.windowDays = windowDays;
+            this.startDay = startDay;
+            this.dayCount = dayCount;
+            this.sums = sums;
+            this.counts = counts;
+        }
+
+        public CovidMetric getMetric()
+        {
+            return metric;
+        }
+
+        public int getWindowDays()
+        {
+            return windowDays;
+        }
+
+        /**
+         * @return the first day of the range, as an epoch day
+         */
+        public int getStartDay()
+        {
+            return startDay;
+        }
+
+        /**
+         * @return the number of days in the range
+         */
+        public int getDayCount()
+        {
+            return dayCount;
+        }
+
+        /**
+         * @return the number of boroughs of the table, including any the series was not worked out for
+         */
+        public int getBoroughCount()
+        {
+            return sums.length;
+        }
+
+        /**
+         * @param boroughId the borough
+         * @return true if the series has figures for the borough. The other methods may only be asked about such boroughs
+         */
+        public boolean hasBorough(int boroughId)
+        {
+            return sums[boroughId] != null;
+        }
+
+        /**
+         * @param boroughId the borough
+         * @param dayIndex the day the window ends on, from 0 for the first day of the range
+         * @return the sum of the metric over the window
+         */
+        public long sum(int boroughId, int dayIndex)
+        {
+            return sums[boroughId][windowDays + dayIndex];
+        }
+
+        /**
+         * @return the number of rows in the window
+         */
+        public int count(int boroughId, int dayIndex)
+        {
+            return counts[boroughId][windowDays + dayIndex];
+        }
+
+        /**
+         * @return the average of the metric over the rows in the window, or NaN if the window has no rows
+         */
+        public double mean(int boroughId, int dayIndex)
+        {
+            int count = count(boroughId, dayIndex);
+            return count == 0 ? Double.NaN : (double) sum(boroughId, dayIndex) / count;
+        }
+
+        /**
+         * Compares the window with the window of the same length just before it, for example this week's new cases
+         * with last week's.
+         *
+         * @return the growth of the sum since the previous window, as a fraction (0.25 means 25% more), or NaN if the
+         * previous window's sum was 0
+         */
+        public double rate(int boroughId, int dayIndex)
+        {
+            long previous = sums[boroughId][dayIndex];
+            return previous == 0 ? Double.NaN : (double) (sum(boroughId, dayIndex) - previous) / previous;
+        }
+
+        /**
+         * @return the rolling mean of every day of the range for one borough, for charts
+         */
+        public double[] means(int boroughId)
+        {
+            double[] means = new double[dayCount];
+            for (int i = 0; i < dayCount; i++)
+            {
+                means[i] = mean(boroughId, i);
+            }
+            return means;
+        }
+
+        /**
+         * @return the rolling mean of every borough for the window ending on one day, indexed by borough id, in the
+         * same form as ChoroplethClassifier.boroughValues() so it can color the map. Boroughs the series has no
+         * figures for are NaN
+         */
+        public double[] meansOn(int dayIndex)
+        {
+            double[] means = new double[sums.length];
+            for (int borough = 0; borough < means.length; borough++)
+            {
+                means[borough] = hasBorough(borough) ? mean(borough, dayIndex) : Double.NaN;
+            }
+            return means;
+        }
+    }
+}
@@ -0,0 +1,433 @@
+import java.util.Arrays;
+
+/**
+ * The RollupIndex class holds the count, sum, minimum and maximum of every metric for every week and every month,
+ * for the whole of London and for each borough of a CovidDataTable. Trends by week or month can be read straight
+ * from the buckets, and the minimum or maximum over a long date range is put together from whole months, then whole
+ * weeks at either end, then the few remaining days, so a range of several years reads tens of buckets instead of
+ * tens of thousands of rows.
+ *
+ * Weeks start on a Monday and months on the first of the month. A bucket only exists if it has at least one row.
+ *
+ * The index is built once, when its table is built, and never changes afterwards. Rows appended to the csv file
+ * produce a new table, and with it a new index that carries on from the buckets of the old one, so only the
+ * appended rows are read.
+ */
+public class RollupIndex
+{
+    /**
+     * The sizes of bucket, from finest to coarsest.
+     */
+    public enum Granularity
+    {
+        WEEK, MONTH;
+
+        /**
+         * @param epochDay an epoch day
+         * @return the number of the bucket the day falls in. Consecutive buckets have consecutive numbers
+         */
+        public int bucketOf(int epochDay)
+        {
+            // 1970-01-01 was a Thursday, so weeks counted from Monday 1969-12-29 start on a Monday
+            return this == WEEK ? Math.floorDiv(epochDay + 3, 7) : EpochDays.monthOf(epochDay);
+        }
+
+        /**
+         * @param bucket a bucket number, as returned by bucketOf()
+         * @return the epoch day of the first day of the bucket
+         */
+        public int firstDay(int bucket)
+        {
+            return this == WEEK ? bucket * 7 - 3 : EpochDays.firstDayOfMonth(bucket);
+        }
+    }
+
+    private final CovidDataTable table;
+    private final Buckets[] london; // The buckets of every row, by granularity
+    private final Buckets[][] boroughs; // The buckets of each borough's rows, by borough and granularity
+
+    /**
+     * Builds the weekly and monthly buckets of a table.
+     *
+     * @param table the date-sorted table to index
+     */
+    public RollupIndex(CovidDataTable table)
+    {
+        this(null, table);
+    }
+
+    /**
+     * Builds the buckets of a table that holds every row of an earlier table followed by later rows, carrying on
+     * from the buckets of the earlier table.
+     *
+     * @param base the index of the earlier table, or null to divide every row into buckets
+     * @param table the date-sorted table to index
+     */
+    RollupIndex(RollupIndex base, CovidDataTable table)
+    {
+        this.table = table;
+        Granularity[] granularities = Granularity.values();
+        london = new Buckets[granularities.length];
+        for (Granularity granularity : granularities)
+        {
+            london[granularity.ordinal()] = new Buckets(base == null ? null : base.london[granularity.ordinal()],
+                table, null, table.getRowCount(), granularity);
+        }
+        boroughs = new Buckets[table.getBoroughCount()][granularities.length];
+        for (int borough = 0; borough < boroughs.length; borough++)
+        {
+            boolean known = base != null && borough < base.boroughs.length;
+            for (Granularity granularity : granularities)
+            {
+                Buckets earlier = known ? base.boroughs[borough][granularity.ordinal()] : null;
+                int size = table.getBoroughRowCount(borough);
+                boroughs[borough][granularity.ordinal()] = earlier != null && earlier.size == size
+                    ? earlier : new Buckets(earlier, table, table.getBoroughRows(borough), size, granularity);
+            }
+        }
+    }
+
+    /**
+     * @param granularity the size of bucket
+     * @param boroughId the borough, or AggregationQuery.ALL_BOROUGHS for the whole of London
+     * @return the number of buckets, in date order
+     */
+    public int bucketCount(Granularity granularity, int boroughId)
+    {
+        return buckets(granularity, boroughId).count;
+    }
+
+    /**
+     * @param granularity the size of bucket
+     * @param boroughId the borough, or AggregationQuery.ALL_BOROUGHS for the whole of London
+     * @param bucket the index of the bucket, from 0 to bucketCount() - 1
+     * @return the first day of the bucket, as an epoch day
+     */
+    public int bucketStartDay(Granularity granularity, int boroughId, int bucket)
+    {
+        return granularity.firstDay(buckets(granularity, boroughId).key(bucket));
+    }
+
+    /**
+     * @return the number of rows in the bucket
+     */
+    public int count(Granularity granularity, int boroughId, int bucket)
+    {
+        return buckets(granularity, boroughId).count(bucket);
+    }
+
+    /**
+     * @return the sum of the metric over the rows of the bucket
+     */
+    public long sum(Granularity granularity, CovidMetric metric, int boroughId, int bucket)
+    {
+        return buckets(granularity, boroughId).sum(metric.ordinal(), bucket);
+    }
+
+    /**
+     * @return the average of the metric over the rows of the bucket
+     */
+    public double mean(Granularity granularity, CovidMetric metric, int boroughId, int bucket)
+    {
+        return (double) sum(granularity, metric, boroughId, bucket) / count(granularity, boroughId, bucket);
+    }
+
+    /**
+     * @return the smallest value of the metric in the bucket
+     */
+    public int min(Granularity granularity, CovidMetric metric, int boroughId, int bucket)
+    {
+        return buckets(granularity, boroughId).min(metric.ordinal(), bucket);
+    }
+
+    /**
+     * @return the largest value of the metric in the bucket
+     */
+    public int max(Granularity granularity, CovidMetric metric, int boroughId, int bucket)
+    {
+        return buckets(granularity, boroughId).max(metric.ordinal(), bucket);
+    }
+
+    /**
+     * Adds the rows of a date range to an accumulator, using whole buckets wherever the range covers them.
+     *
+     * @param accumulator the accumulator to add to
+     * @param boroughId the borough, or AggregationQuery.ALL_BOROUGHS for the whole of London
+     * @param startDay the first day of the range, as an epoch day
+     * @param endDay the last day of the range, as an epoch day
+     */
+    void accumulate(AggregationEngine.Accumulator accumulator, int boroughId, int startDay, int endDay)
+    {
+        int first;
+        int end;
+        if (boroughId == AggregationQuery.ALL_BOROUGHS)
+        {
+            first = table.firstRowOnOrAfter(startDay);
+            end = table.firstRowAfter(endDay);
+        }
+        else
+        {
+            first = table.firstBoroughRowOnOrAfter(boroughId, startDay);
+            end = table.firstBoroughRowAfter(boroughId, endDay);
+        }
+        if (first < end)
+        {
+            Buckets[] levels = boroughId == AggregationQuery.ALL_BOROUGHS ? london : boroughs[boroughId];
+            accumulate(accumulator, levels, levels.length - 1, first, end);
+        }
+    }
+
+    /**
+     * Adds the rows at positions first up to end of a list of rows to an accumulator. Whole buckets of the given
+     * granularity are used for the middle of the range and the ends are handed down to the next finer granularity,
+     * and finally to single rows.
+     */
+    private void accumulate(AggregationEngine.Accumulator accumulator, Buckets[] levels, int level, int first, int end)
+    {
+        if (level < 0)
+        {
+            int[] rows = levels[0].rows;
+            for (int position = first; position < end; position++)
+            {
+                accumulator.add(rows == null ? position : rows[position]);
+            }
+            return;
+        }
+        Buckets buckets = levels[level];
+        int firstBucket = buckets.firstStartingOnOrAfter(first);
+        int endBucket = buckets.firstEndingAfter(end);
+        if (firstBucket >= endBucket)
+        {
+            accumulate(accumulator, levels, level - 1, first, end);
+            return;
+        }
+        accumulate(accumulator, levels, level - 1, first, buckets.start(firstBucket));
+        for (int bucket = firstBucket; bucket < endBucket; bucket++)
+        {
+            accumulator.add(buckets, bucket);
+        }
+        accumulate(accumulator, levels, level - 1, buckets.end(endBucket - 1), end);
+    }
+
+    private Buckets buckets(Granularity granularity, int boroughId)
+    {
+        return boroughId == AggregationQuery.ALL_BOROUGHS ? london[granularity.ordinal()] : boroughs[boroughId][granularity.ordinal()];
+    }
+
+    /**
+     * The Buckets class holds the buckets of one granularity over a date-ordered list of rows. Each bucket covers a
+     * run of positions in the list.
+     *
+     * Every bucket but the last is complete, and is kept in arrays that may have spare room at the end. The last
+     * bucket can still gain rows from later days, so it is kept in fields of its own. The buckets of a longer list
+     * that starts with the same rows carry on from these ones: they share the arrays and only write past the
+     * complete buckets, which is never read here.
+     */
+    static class Buckets
+    {
+        final int[] rows; // The rows the positions refer to, or null if position i is row i of the table
+        final int size; // The number of positions
+        final int count; // The number of buckets
+        private final int[] keys; // The bucket number of each bucket
+        private final int[] ends; // The position just after the last row of each complete bucket
+        private final long[][] sums; // sums[metric][bucket] for each complete bucket
+        private final int[][] mins;
+        private final int[][] maxs;
+        private final long[] lastSums; // lastSums[metric] for the last bucket
+        private final int[] lastMins;
+        private final int[] lastMaxs;
+
+        /**
+         * @param base the buckets of the first positions of the same list, or null to start from nothing
+         * @param table the table the rows belong to
+         * @param rows the rows to divide into buckets, in date order, or null for every row of the table
+         * @param size the number of rows to divide into buckets
+         * @param granularity the size of bucket
+         */
+        Buckets(Buckets base, CovidDataTable table, int[] rows, int size, Granularity granularity)
+        {
+            this.rows = rows;
+            this.size = size;
+            int[] dates = table.getDateColumn();
+            int metricCount = CovidMetric.values().length;
+            int[][] values = new int[metricCount][];
+            for (CovidMetric metric : CovidMetric.values())
+            {
+                values[metric.ordinal()] = table.getColumn(metric);
+            }
+
+            int bucketCount = 0;
+            int[] bucketKeys = null;
+            int[] bucketEnds = null;
+            long[][] bucketSums = new long[metricCount][];
+            int[][] bucketMins = new int[metricCount][];
+            int[][] bucketMaxs = new int[metricCount][];
+            long[] openSums = new long[metricCount];
+            int[] openMins = new int[metricCount];
+            int[] openMaxs = new int[metricCount];
+            int position = 0;
+            if (base != null && base.count > 0)
+            {
+                bucketCount = base.count;
+                bucketKeys = base.keys;
+                bucketEnds = base.ends;
+                for (int m = 0; m < metricCount; m++)
+                {
+                    bucketSums[m] = base.sums[m];
+                    bucketMins[m] = base.mins[m];
+                    bucketMaxs[m] = base.maxs[m];
+                }
+                System.arraycopy(base.lastSums, 0, openSums, 0, metricCount);
+                System.arraycopy(base.lastMins, 0, openMins, 0, metricCount);
+                System.arraycopy(base.lastMaxs, 0, openMaxs, 0, metricCount);
+                position = base.size;
+            }
+
+            // The rows are in date order, so a new bucket starts when the number changes
+            for (; position < size; position++)
+            {
+                int row = rows == null ? position : rows[position];
+                int key = granularity.bucketOf(dates[row]);
+                if (bucketCount == 0 || bucketKeys[bucketCount - 1] != key)
+                {
+                    if (bucketCount > 0)
+                    {
+                        // The open bucket is complete: keep it in the arrays, past the buckets base reads
+                        bucketEnds = CovidDataTable.withRoom(bucketEnds, bucketCount);
+                        bucketEnds[bucketCount - 1] = position;
+                        for (int m = 0; m < metricCount; m++)
+                        {
+                            bucketSums[m] = withRoom(bucketSums[m], bucketCount);
+                            bucketMins[m] = CovidDataTable.withRoom(bucketMins[m], bucketCount);
+                            bucketMaxs[m] = CovidDataTable.withRoom(bucketMaxs[m], bucketCount);
+                            bucketSums[m][bucketCount - 1] = openSums[m];
+                            bucketMins[m][bucketCount - 1] = openMins[m];
+                            bucketMaxs[m][bucketCount - 1] = openMaxs[m];
+                        }
+                    }
+                    bucketKeys = CovidDataTable.withRoom(bucketKeys, bucketCount + 1);
+                    bucketKeys[bucketCount++] = key;
+                    Arrays.fill(openSums, 0);
+                    Arrays.fill(openMins, Integer.MAX_VALUE);
+                    Arrays.fill(openMaxs, Integer.MIN_VALUE);
+                }
+                for (int m = 0; m < metricCount; m++)
+                {
+                    int value = values[m][row];
+                    openSums[m] += value;
+                    openMins[m] = Math.min(openMins[m], value);
+                    openMaxs[m] = Math.max(openMaxs[m], value);
+                }
+            }
+
+            count = bucketCount;
+            keys = bucketKeys;
+            ends = bucketEnds;
+            sums = bucketSums;
+            mins = bucketMins;
+            maxs = bucketMaxs;
+            lastSums = openSums;
+            lastMins = openMins;
+            lastMaxs = openMaxs;
+        }
+
+        private static long[] withRoom(long[] array, int size)
+        {
+            if (array == null)
+            {
+                return new long[Math.max(size, 16)];
+            }
+            return array.length >= size ? array : Arrays.copyOf(array, Math.max(size, array.length + (array.length >> 1)));
+        }
+
+        /**
+         * @return the bucket number of a bucket
+         */
+        int key(int bucket)
+        {
+            return keys[bucket];
+        }
+
+        /**
+         * @return the sum of a metric, given by its ordinal, over the rows of a bucket
+         */
+        long sum(int metric, int bucket)
+        {
+            return bucket == count - 1 ? lastSums[metric] : sums[metric][bucket];
+        }
+
+        /**
+         * @return the smallest value of a metric, given by its ordinal, in a bucket
+         */
+        int min(int metric, int bucket)
+        {
+            return bucket == count - 1 ? lastMins[metric] : mins[metric][bucket];
+        }
+
+        /**
+         * @return the largest value of a metric, given by its ordinal, in a bucket
+         */
+        int max(int metric, int bucket)
+        {
+            return bucket == count - 1 ? lastMaxs[metric] : maxs[metric][bucket];
+        }
+
+        /**
+         * @return the position just after the last row of a bucket
+         */
+        int end(int bucket)
+        {
+            return bucket == count - 1 ? size : ends[bucket];
+        }
+
+        /**
+         * @return the position of the first row of a bucket
+         */
+        int start(int bucket)
+        {
+            return bucket == 0 ? 0 : end(bucket - 1);
+        }
+
+        int count(int bucket)
+        {
+            return end(bucket) - start(bucket);
+        }
+
+        /**
+         * @return the index of the first bucket that starts at or after a position
+         */
+        int firstStartingOnOrAfter(int position)
+        {
+            // Bucket b starts where bucket b - 1 ends, so look for the first end at or after the position
+            return position == 0 ? 0 : firstEndOnOrAfter(position) + 1;
+        }
+
+        /**
+         * @return the index of the first bucket that ends after a position, which is the number of buckets that end
+         * at or before it
+         */
+        int firstEndingAfter(int position)
+        {
+            return firstEndOnOrAfter(position + 1);
+        }
+
+        private int firstEndOnOrAfter(int position)
+        {
+            int low = 0;
+            int high = count;
+            while (low < high)
+            {
+                int middle = (low + high) >>> 1;
+                if (end(middle) < position)
+                {
+                    low = middle + 1;
+                }
+                else
+                {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+}
@@ -1,10 +1,6 @@
 import javafx.scene.control.Button;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.StackPane;
-import java.util.ArrayList;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.text.ParseException;
 import javafx.scene.control.Label;
 import javafx.scene.text.Font;
 
@@ -17,36 +13,43 @@ public class Statistics
 {
     private StackPane[] panels; // Array of panels for displaying statistics
     private int currentIndex; // Index of the currently displayed panel
-    private SimpleDateFormat sdf; //Define the format the date is represented in
-    private CovidDataLoader records; //Load the records to be used for statistics
-    private String startDate;
-    private String endDate;
+    private int startDay;
+    private int endDay;
     private Button backButton;
     private Button forwardButton;
-    private ArrayList<CovidData> recordList;
+    private AggregationResult result; //Every statistic shown on the panels, worked out together
     
     /**
      * Constructs a Statistics object with the given start date, end date, and root BorderPane.
      * 
-     * @param startDate The start date of the selected date range.
-     * @param endDate The end date of the selected date range.
+     * @param startDay The first day of the selected date range, as an epoch day.
+     * @param endDay The last day of the selected date range, as an epoch day.
      * @param root The BorderPane to which the statistics panels and navigation buttons will be added.
      */
-    public Statistics(String startDate, String endDate, BorderPane root)
+    public Statistics(int startDay, int endDay, BorderPane root)
     {
-        this.startDate = startDate;
-        this.endDate = endDate;
-        
-        this.records = new CovidDataLoader();
-        recordList = records.load();
-        
-        this.sdf = new SimpleDateFormat("yyyy-MM-dd");
+        this(startDay, endDay, calculate(startDay, endDay), root);
+    }
+    
+    /**
+     * Constructs a Statistics object from statistics that have already been calculated, for example on a background thread.
+     * 
+     * @param startDay The first day of the selected date range, as an epoch day.
+     * @param endDay The last day of the selected date range, as an epoch day.
+     * @param result The statistics returned by calculate() for the same date range.
+     * @param root The BorderPane to which the statistics panels and navigation buttons will be added.
+     */
+    public Statistics(int startDay, int endDay, AggregationResult result, BorderPane root)
+    {
+        this.startDay = startDay;
+        this.endDay = endDay;
+        this.result = result;
         
         panels = new StackPane[4];
-        panels[0] = createPanel(avgParksGMR(startDate, endDate));
-        panels[1] = createPanel(avgTransitGMR(startDate, endDate));
-        panels[2] = createPanel(totalDeaths(startDate, endDate));
-        panels[3] = createPanel(avgTotalCases(startDate, endDate));
+        panels[0] = createPanel(avgParksGMR());
+        panels[1] = createPanel(avgTransitGMR());
+        panels[2] = createPanel(totalDeaths());
+        panels[3] = createPanel(avgTotalCases());
         
         currentIndex = 0;
 
@@ -72,6 +75,34 @@ public class Statistics
         
     }
     
+    /**
+     * Calculates every statistic shown on the panels. This loads the dataset if it has not been loaded yet and does
+     * not touch the user interface, so it can be run away from the JavaFX application thread.
+     * 
+     * @param startDay The first day of the selected date range, as an epoch day.
+     * @param endDay The last day of the selected date range, as an epoch day.
+     * @return The statistics for the date range.
+     */
+    public static AggregationResult calculate(int startDay, int endDay)
+    {
+        return calculate(CovidDataRepository.getInstance().getTable(), startDay, endDay);
+    }
+    
+    /**
+     * Calculates every statistic shown on the panels from a given dataset. The statistics are all sums and averages,
+     * which come from running totals, so they take the same short time for any date range. The calculation itself
+     * lives in CovidQueryService, so it can also be run without a user interface.
+     * 
+     * @param table The dataset to calculate the statistics from.
+     * @param startDay The first day of the selected date range, as an epoch day.
+     * @param endDay The last day of the selected date range, as an epoch day.
+     * @return The statistics for the date range.
+     */
+    public static AggregationResult calculate(CovidDataTable table, int startDay, int endDay)
+    {
+        return new CovidQueryService(table).statistics(startDay, endDay);
+    }
+    
     /**
      * Moves to the previous panel when the back button is clicked. If on the first page, then moves to the last panel.
      */
@@ -134,36 +165,11 @@ public class Statistics
     /**
      * Calculates the average Google Mobility Measure for parks within the specified date range.
      *
-     * @param startDateString the start date of the date range
-     * @param endDateString   the end date of the date range
      * @return the average Google Mobility Measure for parks
      */
-    private String avgParksGMR(String startDateString, String endDateString)
+    private String avgParksGMR()
     {
-        float sum = 0;
-        float count = 0;
-        
-        for (CovidData rec: recordList)
-        {
-            try
-            {
-                Date date = sdf.parse(rec.getDate());
-                Date startDate = sdf.parse(startDateString);
-                Date endDate = sdf.parse(endDateString);
-                
-                if (date.compareTo(startDate) >= 0 && date.compareTo(endDate) <= 0)
-                {
-                    sum += rec.getParksGMR();
-                    count++;
-                }
-            }
-            catch (ParseException e) {
-            e.printStackTrace();
-            return "null";
-            }
-        }
-       
-        float average = sum / count;
+        float average = (float) result.get(CovidMetric.PARKS_GMR, AggregateFunction.MEAN);
         
         if (Float.isNaN(average))
         {
@@ -177,36 +183,11 @@ public class Statistics
     /**
      * Calculates the average Google Mobility Measure for transit within the specified date range.
      *
-     * @param startDateString the start date of the date range
-     * @param endDateString   the end date of the date range
      * @return the average Google Mobility Measure for transit
      */
-    private String avgTransitGMR(String startDateString, String endDateString)
+    private String avgTransitGMR()
     {
-        float sum = 0;
-        float count = 0;
-        
-        for (CovidData rec: recordList)
-        {
-            try
-            {
-                Date date = sdf.parse(rec.getDate());
-                Date startDate = sdf.parse(startDateString);
-                Date endDate = sdf.parse(endDateString);
-
-                if (date.compareTo(startDate) >= 0 && date.compareTo(endDate) <= 0)
-                {
-                    sum += rec.getTransitGMR();
-                    count++;
-                }
-            }
-            catch (ParseException e) {
-            e.printStackTrace();
-            return "null";
-            }
-        }
-        
-        float average = sum / count;
+        float average = (float) result.get(CovidMetric.TRANSIT_GMR, AggregateFunction.MEAN);
         
         if (Float.isNaN(average))
         {
@@ -220,33 +201,11 @@ public class Statistics
     /**
      * Calculates the total number of deaths within the specified date range.
      *
-     * @param startDateString the start date of the date range
-     * @param endDateString   the end date of the date range
      * @return the total number of deaths
      */
-    private String totalDeaths(String startDateString, String endDateString)
+    private String totalDeaths()
     {
-        float sum = 0;
-        float count = 0;
-        
-        for (CovidData rec: recordList)
-        {
-            try
-            {
-                Date date = sdf.parse(rec.getDate());
-                Date startDate = sdf.parse(startDateString);
-                Date endDate = sdf.parse(endDateString);
-
-                if (date.compareTo(startDate) >= 0 && date.compareTo(endDate) <= 0)
-                {
-                    sum += rec.getTotalDeaths();
-                }
-            }
-            catch (ParseException e) {
-            e.printStackTrace();
-            return "null";
-            }
-        }
+        float sum = (float) result.get(CovidMetric.TOTAL_DEATHS, AggregateFunction.SUM);
         
         return "Total Number Of (total) Deaths" + "\n \n" + "                  " + sum;
         
@@ -255,37 +214,11 @@ public class Statistics
     /**
      * Calculates the average total cases within the specified date range.
      *
-     * @param startDateString the start date of the date range
-     * @param endDateString   the end date of the date range
      * @return the average total cases
      */
-    private String avgTotalCases(String startDateString, String endDateString)
+    private String avgTotalCases()
     {
-        float sum = 0;
-        float count = 0;
-        
-        for (CovidData rec: recordList)
-        {
-            try
-            {
-                Date date = sdf.parse(rec.getDate());
-                Date startDate = sdf.parse(startDateString);
-                Date endDate = sdf.parse(endDateString);
-
-                if (date.compareTo(startDate) >= 0 && date.compareTo(endDate) <= 0)
-                {
-                    sum += rec.getTotalCases();
-                    count++;
-                
-                }
-            }
-            catch (ParseException e) {
-            e.printStackTrace();
-            return "null";
-            }
-        }
-        
-        float average = sum / count;
+        float average = (float) result.get(CovidMetric.TOTAL_CASES, AggregateFunction.MEAN);
         
         if (Float.isNaN(average))
         {
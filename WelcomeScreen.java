@@ -21,10 +21,10 @@ public class WelcomeScreen
      * Constructs a WelcomeScreen object with the given root BorderPane and date range.
      * 
      * @param root The BorderPane to which the welcome message and date range (if available) will be added.
-     * @param startDate The start date of the selected date range.
-     * @param endDate The end date of the selected date range.
+     * @param startDay The first day of the selected date range as an epoch day, or null if no range is selected.
+     * @param endDay The last day of the selected date range as an epoch day, or null if no range is selected.
      */
-    public WelcomeScreen(BorderPane root, String startDate, String endDate)
+    public WelcomeScreen(BorderPane root, Integer startDay, Integer endDay)
     {
         Text welcomeText = new Text();
         
@@ -39,11 +39,11 @@ public class WelcomeScreen
         welcomeText.setY(80);
         
         // Check if both start date and end date are provided
-        if (startDate != null && endDate != null)
+        if (startDay != null && endDay != null)
         {
             Text dateRange = new Text();
             // Set the selected date range text
-            dateRange.setText("Selected Date Range: " + startDate + " to " + endDate);
+            dateRange.setText("Selected Date Range: " + EpochDays.format(startDay) + " to " + EpochDays.format(endDay));
             dateRange.setX(170);
             dateRange.setY(250);
             
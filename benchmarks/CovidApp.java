@@ -0,0 +1,383 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The CovidApp class gives the benchmarks access to the application's classes.
+ *
+ * The application lives in the default package, which cannot be imported, while JMH insists that benchmarks live in
+ * a named package. Each application method is therefore looked up once as a MethodHandle held in a static final
+ * field. The JIT treats such handles as constants and inlines straight through them, so calling the application this
+ * way costs the same as calling it directly. Application objects are passed around as plain Objects.
+ *
+ * Only classes that do not use JavaFX are looked up, such as CovidQueryService rather than the Borough and Map panels
+ * that call it, so the benchmarks run without the JavaFX jars on the class path.
+ */
+final class CovidApp
+{
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    private static final Class<?> LOADER = type("CovidDataLoader");
+    private static final Class<?> TABLE = type("CovidDataTable");
+    private static final Class<?> METRIC = type("CovidMetric");
+    private static final Class<?> FUNCTION = type("AggregateFunction");
+    private static final Class<?> QUERY = type("AggregationQuery");
+    private static final Class<?> RESULT = type("AggregationResult");
+    private static final Class<?> ENGINE = type("AggregationEngine");
+    private static final Class<?> CLASSIFIER = type("ChoroplethClassifier");
+    private static final Class<?> METHOD = type("ChoroplethClassifier$Method");
+
+    private static final MethodHandle NEW_LOADER = constructor(LOADER);
+    private static final MethodHandle LOAD = virtual(LOADER, "load", ArrayList.class, File.class);
+    private static final MethodHandle LOAD_TABLE = virtual(LOADER, "loadTable", TABLE, File.class);
+    private static final MethodHandle ROW_COUNT = virtual(TABLE, "getRowCount", int.class);
+    private static final MethodHandle NEW_QUERY = constructor(QUERY, int.class, int.class);
+    private static final MethodHandle ADD = virtual(QUERY, "add", QUERY, METRIC, FUNCTION);
+    private static final MethodHandle NEW_ENGINE = constructor(ENGINE, TABLE);
+    private static final MethodHandle NEW_CACHED_ENGINE = constructor(ENGINE, TABLE, type("ParallelScanner"), type("QueryCache"));
+    private static final MethodHandle NEW_CACHE = constructor(type("QueryCache"), int.class);
+    private static final MethodHandle RUN = virtual(ENGINE, "run", RESULT, QUERY);
+    private static final MethodHandle VALUE = virtual(RESULT, "getValue", double.class, int.class);
+    private static final MethodHandle PANEL_QUERY = statics("CovidQueryService", "panelStatistics", QUERY, int.class, int.class);
+    private static final MethodHandle FIND_ROWS = statics("CovidQueryService", "findRows", int[].class, TABLE, String.class, int.class, int.class);
+    private static final MethodHandle SORT_ROWS = statics("CovidQueryService", "sortRows", int[].class, TABLE, int[].class, METRIC, boolean.class);
+    private static final MethodHandle MAP_VALUES = statics("ChoroplethClassifier", "boroughValues", double[].class, TABLE, METRIC, int.class, int.class);
+    private static final MethodHandle MAP_CLASSIFIER = statics("CovidQueryService", "mapClassifier", CLASSIFIER, METRIC, METHOD);
+    private static final MethodHandle BREAKS = virtual(CLASSIFIER, "computeBreaks", double[].class, double[].class);
+    private static final MethodHandle NEW_GENERATOR = constructor(type("CovidDataGenerator"), int.class, int.class, int.class, long.class);
+    private static final MethodHandle GENERATE = virtual(type("CovidDataGenerator"), "write", long.class, File.class);
+    private static final MethodHandle EPOCH_DAY = statics("EpochDays", "parse", int.class, CharSequence.class);
+    private static final MethodHandle CLASSIFY = statics("ChoroplethClassifier", "classify", int[].class, double[].class, double[].class);
+
+    private CovidApp()
+    {
+    }
+
+    static Object newLoader()
+    {
+        try
+        {
+            return (Object) NEW_LOADER.invokeExact();
+        }
+        catch (Throwable t)
+        {
+            throw failure(t);
+        }
+    }
+
+    static List<?> load(Object loader, File csvFile)
+    {
+        try
+        {
+            return (List<?>) (Object) LOAD.invokeExact(loader, (Object) csvFile);
+        }
+        catch (Throwable t)
+        {
+            throw failure(t);
+        }
+    }
+
+    static Object loadTable(Object loader, File csvFile)
+    {
+        try
+        {
+            return (Object) LOAD_TABLE.invokeExact(loader, (Object) csvFile);
+        }
+        catch (Throwable t)
+        {
+            throw failure(t);
+        }
+    }
+
+    static int rowCount(Object table)
+    {
+        try
+        {
+            return (int) ROW_COUNT.invokeExact(table);
+        }
+        catch (Throwable t)
+        {
+            throw failure(t);
+        }
+    }
+
+    /**
+     * @return an AggregationQuery over the whole of London asking for one aggregate
+     */
+    static Object query(int startDay, int endDay, String metric, String function)
+    {
+        try
+        {
+            Object query = (Object) NEW_QUERY.invokeExact(startDay, endDay);
+            return (Object) ADD.invokeExact(query, constant(METRIC, metric), constant(FUNCTION, function));
+        }
+        catch (Throwable t)
+        {
+            throw failure(t);
+        }
+    }
+
+    static Object newEngine(Object table)
+    {
+        try
+        {
+            return (Object) NEW_ENGINE.invokeExact(table);
+        }
+        catch (Throwable t)
+        {
+            throw failure(t);
+        }
+    }
+
+    /**
+     * @return an AggregationEngine that stays sequential and keeps its statistics in a QueryCache of its own
+     */
+    static Object newCachedEngine(Object table, int cacheCapacity)
+    {
+        try
+        {
+            Object cache = (Object) NEW_CACHE.invokeExact(cacheCapacity);
+            return (Object) NEW_CACHED_ENGINE.invokeExact(table, (Object) null, cache);
+        }
+        catch (Throwable t)
+        {
+            throw failure(t);
+        }
+    }
+
+    /**
+     * Runs a query and returns its first value.
+     */
+    static double run(Object engine, Object query)
+    {
+        try
+        {
+            Object result = (Object) RUN.invokeExact(engine, query);
+            return (double) VALUE.invokeExact(result, 0);
+        }
+        catch (Throwable t)
+        {
+            throw failure(t);
+        }
+    }
+
+    /**
+     * Runs a query and returns its AggregationResult.
+     */
+    static Object result(Object engine, Object query)
+    {
+        try
+        {
+            return (Object) RUN.invokeExact(engine, query);
+        }
+        catch (Throwable t)
+        {
+            throw failure(t);
+        }
+    }
+
+    /**
+     * @return the AggregationQuery of the Statistics panel's four statistics
+     */
+    static Object panelQuery(int startDay, int endDay)
+    {
+        try
+        {
+            return (Object) PANEL_QUERY.invokeExact(startDay, endDay);
+        }
+        catch (Throwable t)
+        {
+            throw failure(t);
+        }
+    }
+
+    static int[] findRows(Object table, String borough, int startDay, int endDay)
+    {
+        try
+        {
+            return (int[]) (Object) FIND_ROWS.invokeExact(table, (Object) borough, startDay, endDay);
+        }
+        catch (Throwable t)
+        {
+            throw failure(t);
+        }
+    }
+
+    /**
+     * @param metric the CovidMetric to sort by, as returned by metric(), or null to sort by date
+     */
+    static int[] sortRows(Object table, int[] rows, Object metric, boolean descending)
+    {
+        try
+        {
+            return (int[]) (Object) SORT_ROWS.invokeExact(table, (Object) rows, metric, descending);
+        }
+        catch (Throwable t)
+        {
+            throw failure(t);
+        }
+    }
+
+    static double[] mapValues(Object table, Object metric, int startDay, int endDay)
+    {
+        try
+        {
+            return (double[]) (Object) MAP_VALUES.invokeExact(table, metric, startDay, endDay);
+        }
+        catch (Throwable t)
+        {
+            throw failure(t);
+        }
+    }
+
+    static Object mapClassifier(String metric, String method)
+    {
+        try
+        {
+            return (Object) MAP_CLASSIFIER.invokeExact(constant(METRIC, metric), constant(METHOD, method));
+        }
+        catch (Throwable t)
+        {
+            throw failure(t);
+        }
+    }
+
+    static int[] classify(Object classifier, double[] values)
+    {
+        try
+        {
+            double[] breaks = (double[]) (Object) BREAKS.invokeExact(classifier, (Object) values);
+            return (int[]) (Object) CLASSIFY.invokeExact((Object) values, (Object) breaks);
+        }
+        catch (Throwable t)
+        {
+            throw failure(t);
+        }
+    }
+
+    /**
+     * Writes a synthetic dataset with CovidDataGenerator.
+     *
+     * @return the number of rows written
+     */
+    static long generate(File csvFile, int regions, int days, int startDay, long seed) throws IOException
+    {
+        try
+        {
+            Object generator = (Object) NEW_GENERATOR.invokeExact(regions, days, startDay, seed);
+            return (long) GENERATE.invokeExact(generator, (Object) csvFile);
+        }
+        catch (IOException e)
+        {
+            throw e;
+        }
+        catch (Throwable t)
+        {
+            throw failure(t);
+        }
+    }
+
+    /**
+     * @return the epoch day of a yyyy-MM-dd date, as the application holds dates
+     */
+    static int epochDay(String date)
+    {
+        try
+        {
+            return (int) EPOCH_DAY.invokeExact((Object) date);
+        }
+        catch (Throwable t)
+        {
+            throw failure(t);
+        }
+    }
+
+    /**
+     * @return the CovidMetric with the given name, or null for a null name
+     */
+    static Object metric(String name)
+    {
+        return name == null ? null : constant(METRIC, name);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object constant(Class<?> enumType, String name)
+    {
+        return Enum.valueOf((Class) enumType, name);
+    }
+
+    private static Class<?> type(String name)
+    {
+        try
+        {
+            return Class.forName(name);
+        }
+        catch (ClassNotFoundException e)
+        {
+            throw new IllegalStateException("The application classes must be on the class path: " + name, e);
+        }
+    }
+
+    private static MethodHandle constructor(Class<?> owner, Class<?>... parameters)
+    {
+        try
+        {
+            return erase(LOOKUP.findConstructor(owner, MethodType.methodType(void.class, parameters)));
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle virtual(Class<?> owner, String name, Class<?> returnType, Class<?>... parameters)
+    {
+        try
+        {
+            return erase(LOOKUP.findVirtual(owner, name, MethodType.methodType(returnType, parameters)));
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle statics(String owner, String name, Class<?> returnType, Class<?>... parameters)
+    {
+        try
+        {
+            return erase(LOOKUP.findStatic(type(owner), name, MethodType.methodType(returnType, parameters)));
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Changes every object type of a handle to Object, so it can be called without naming the application's classes.
+     */
+    private static MethodHandle erase(MethodHandle handle)
+    {
+        return handle.asType(handle.type().erase());
+    }
+
+    private static RuntimeException failure(Throwable t)
+    {
+        if (t instanceof RuntimeException)
+        {
+            return (RuntimeException) t;
+        }
+        if (t instanceof Error)
+        {
+            throw (Error) t;
+        }
+        return new IllegalStateException(t);
+    }
+}
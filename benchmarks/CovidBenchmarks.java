@@ -0,0 +1,276 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * The CovidBenchmarks class measures the hot paths of the application with JMH: loading the csv file, the four
+ * aggregates of the Statistics panels, the Borough window's filter and column sorts, and coloring the Map.
+ *
+ * Every benchmark runs against three datasets: the shipped 36k-row covid_london.csv, and synthetic datasets of
+ * about 1 million and 10 million rows made by CovidDataGenerator. The synthetic files are written to the temporary
+ * folder the first time they are needed and reused after that. Each benchmark reports throughput and average time, and main() adds the GC
+ * profiler so the allocation rate of every path is reported too.
+ *
+ * See README.md for how to compile and run the benchmarks.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g", "-Dcovid.snapshot=false"})
+public class CovidBenchmarks
+{
+    // The date range used by the queries, inside the range of every dataset
+    private static final int START_DAY = CovidApp.epochDay("2020-06-01");
+    private static final int END_DAY = CovidApp.epochDay("2021-12-31");
+    private static final String BOROUGH = "Camden";
+
+    // The synthetic datasets cover the same days as the shipped file
+    private static final int SYNTHETIC_START_DAY = CovidApp.epochDay("2020-02-03");
+    private static final int SYNTHETIC_DAYS = 1103;
+
+    /**
+     * The csv file of one of the datasets.
+     */
+    @State(Scope.Benchmark)
+    public static class DataFile
+    {
+        @Param({"36k", "1M", "10M"})
+        public String size;
+
+        File csvFile;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException
+        {
+            File shipped = new File(System.getProperty("covid.csv", "covid_london.csv"));
+            if (!shipped.isFile())
+            {
+                throw new IllegalStateException("Cannot find " + shipped.getAbsolutePath()
+                    + ", run from the project folder or set -Dcovid.csv");
+            }
+            switch (size)
+            {
+                case "36k": csvFile = shipped; break;
+                case "1M": csvFile = syntheticFile(1_000_000); break;
+                case "10M": csvFile = syntheticFile(10_000_000); break;
+                default: throw new IllegalArgumentException("Unknown dataset size " + size);
+            }
+        }
+    }
+
+    /**
+     * One of the datasets loaded into a table, with everything the query benchmarks need worked out up front.
+     */
+    @State(Scope.Benchmark)
+    public static class Dataset
+    {
+        Object table;
+        Object engine;
+        Object cachedEngine;
+        Object avgParksGMR;
+        Object avgTransitGMR;
+        Object totalDeaths;
+        Object avgTotalCases;
+        Object maxNewCases;
+        Object panel;
+        int[] boroughRows;
+        Object totalCases;
+        Object totalDeathsMetric;
+
+        @Setup(Level.Trial)
+        public void setUp(DataFile data)
+        {
+            table = CovidApp.loadTable(CovidApp.newLoader(), data.csvFile);
+            engine = CovidApp.newEngine(table);
+            cachedEngine = CovidApp.newCachedEngine(table, 4096);
+            // The same aggregates the Statistics panels show
+            avgParksGMR = CovidApp.query(START_DAY, END_DAY, "PARKS_GMR", "MEAN");
+            avgTransitGMR = CovidApp.query(START_DAY, END_DAY, "TRANSIT_GMR", "MEAN");
+            totalDeaths = CovidApp.query(START_DAY, END_DAY, "TOTAL_DEATHS", "SUM");
+            avgTotalCases = CovidApp.query(START_DAY, END_DAY, "TOTAL_CASES", "MEAN");
+            maxNewCases = CovidApp.query(START_DAY, END_DAY, "NEW_CASES", "MAX");
+            panel = CovidApp.panelQuery(START_DAY, END_DAY);
+            boroughRows = CovidApp.findRows(table, BOROUGH, START_DAY, END_DAY);
+            totalCases = CovidApp.metric("TOTAL_CASES");
+            totalDeathsMetric = CovidApp.metric("TOTAL_DEATHS");
+        }
+    }
+
+    /**
+     * The ways the map can work out its colors.
+     */
+    @State(Scope.Benchmark)
+    public static class Coloring
+    {
+        @Param({"FIXED", "QUANTILE", "JENKS"})
+        public String method;
+
+        Object classifier;
+
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            classifier = CovidApp.mapClassifier("TOTAL_DEATHS", method);
+        }
+    }
+
+    /**
+     * Parses the csv file into the column-oriented table the application runs on.
+     */
+    @Benchmark
+    public int loadTable(DataFile data)
+    {
+        return CovidApp.rowCount(CovidApp.loadTable(CovidApp.newLoader(), data.csvFile));
+    }
+
+    /**
+     * Parses the csv file into a list of CovidData records, as CovidDataLoader.load() does.
+     */
+    @Benchmark
+    public int loadRecords(DataFile data)
+    {
+        return CovidApp.load(CovidApp.newLoader(), data.csvFile).size();
+    }
+
+    @Benchmark
+    public double statisticsAvgParksGMR(Dataset dataset)
+    {
+        return CovidApp.run(dataset.engine, dataset.avgParksGMR);
+    }
+
+    @Benchmark
+    public double statisticsAvgTransitGMR(Dataset dataset)
+    {
+        return CovidApp.run(dataset.engine, dataset.avgTransitGMR);
+    }
+
+    @Benchmark
+    public double statisticsTotalDeaths(Dataset dataset)
+    {
+        return CovidApp.run(dataset.engine, dataset.totalDeaths);
+    }
+
+    @Benchmark
+    public double statisticsAvgTotalCases(Dataset dataset)
+    {
+        return CovidApp.run(dataset.engine, dataset.avgTotalCases);
+    }
+
+    /**
+     * A maximum over the date range, which is put together from the weekly and monthly rollups.
+     */
+    @Benchmark
+    public double statisticsMaxNewCases(Dataset dataset)
+    {
+        return CovidApp.run(dataset.engine, dataset.maxNewCases);
+    }
+
+    /**
+     * All four statistics of the Statistics panel in one query, worked out every time by an engine without a cache.
+     */
+    @Benchmark
+    public Object statisticsPanel(Dataset dataset)
+    {
+        return CovidApp.result(dataset.engine, dataset.panel);
+    }
+
+    /**
+     * The same maximum as statisticsMaxNewCases, through an engine with a QueryCache. After the first call the
+     * maximum is in the cache, so this measures a cache hit.
+     */
+    @Benchmark
+    public double statisticsMaxNewCasesCached(Dataset dataset)
+    {
+        return CovidApp.run(dataset.cachedEngine, dataset.maxNewCases);
+    }
+
+    /**
+     * Finds the rows of one borough within the date range, as the Borough window does when it opens.
+     */
+    @Benchmark
+    public int[] boroughFilter(Dataset dataset)
+    {
+        return CovidApp.findRows(dataset.table, BOROUGH, START_DAY, END_DAY);
+    }
+
+    /**
+     * Sorts the Borough window's rows by a value column, largest first.
+     */
+    @Benchmark
+    public int[] boroughSortByTotalCases(Dataset dataset)
+    {
+        return CovidApp.sortRows(dataset.table, dataset.boroughRows, dataset.totalCases, true);
+    }
+
+    /**
+     * Sorts the Borough window's rows back into date order.
+     */
+    @Benchmark
+    public int[] boroughSortByDate(Dataset dataset)
+    {
+        return CovidApp.sortRows(dataset.table, dataset.boroughRows, null, false);
+    }
+
+    /**
+     * Works out the map's value for every borough and puts each borough into a color class.
+     */
+    @Benchmark
+    public int[] mapColoring(Dataset dataset, Coloring coloring)
+    {
+        double[] values = CovidApp.mapValues(dataset.table, dataset.totalDeathsMetric, START_DAY, END_DAY);
+        return CovidApp.classify(coloring.classifier, values);
+    }
+
+    /**
+     * Returns a synthetic dataset of about the given number of rows, writing it with CovidDataGenerator the first time.
+     * The dataset covers the same days as the shipped file, with as many regions as are needed for the size.
+     */
+    static File syntheticFile(int rows) throws IOException
+    {
+        File csvFile = new File(System.getProperty("java.io.tmpdir"), "covid-benchmark-" + rows + ".csv");
+        if (!csvFile.isFile())
+        {
+            File temp = new File(csvFile.getPath() + ".tmp");
+            CovidApp.generate(temp, (rows + SYNTHETIC_DAYS - 1) / SYNTHETIC_DAYS, SYNTHETIC_DAYS, SYNTHETIC_START_DAY, 1);
+            Files.move(temp.toPath(), csvFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return csvFile;
+    }
+
+    /**
+     * Runs the benchmarks with the GC profiler. Any JMH command line options given are applied on top, for example
+     * "-p size=36k" to run only the shipped dataset, or a benchmark name pattern to run only some benchmarks.
+     */
+    public static void main(String[] args) throws Exception
+    {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        OptionsBuilder options = new OptionsBuilder();
+        options.parent(commandLine).addProfiler(GCProfiler.class);
+        if (commandLine.getIncludes().isEmpty())
+        {
+            options.include(CovidBenchmarks.class.getName());
+        }
+        new Runner(options.build()).run();
+    }
+}
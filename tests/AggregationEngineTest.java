@@ -0,0 +1,162 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks AggregationEngine against a scan of every row, for every date range that starts and ends within a week or
+ * so either side of the data, so ranges that are empty, outside the data, or start or end on either side of every
+ * week and month boundary are all covered. Each range is asked of the whole of London and of every borough, with
+ * every metric and aggregate function, from engines using the rollups, reading every row, reading in parallel and
+ * answering from a cache. Also checks a small cache keeps the statistics it has room for.
+ */
+public class AggregationEngineTest
+{
+    public static void main(String[] args)
+    {
+        check(TestTables.table(TestTables.rows(1, 45)), "synthetic table");
+        check(TestTables.table(TestTables.rows(2, 9)), "table of a few days");
+        check(TestTables.table(new ArrayList<>()), "empty table");
+        smallCache();
+        System.out.println("AggregationEngineTest passed");
+    }
+
+    /**
+     * Checks a cache smaller than a stripe holds as many statistics as it was asked to, and drops the least
+     * recently used one when it is full.
+     */
+    private static void smallCache()
+    {
+        CovidDataTable table = TestTables.table(new ArrayList<>());
+        for (int capacity : new int[] {1, 10, 63})
+        {
+            QueryCache cache = new QueryCache(capacity);
+            for (int day = 0; day < capacity; day++)
+            {
+                cache.put(table, day, day, AggregationQuery.ALL_BOROUGHS, CovidMetric.NEW_CASES, AggregateFunction.MAX, day);
+            }
+            Check.isTrue(cache.size() == capacity && cache.getEvictions() == 0, "cache of " + capacity + " filled");
+            // Using the first statistic makes the second the least recently used
+            Check.isTrue(cache.get(table, 0, 0, AggregationQuery.ALL_BOROUGHS, CovidMetric.NEW_CASES, AggregateFunction.MAX) != null,
+                "cache of " + capacity + ": first statistic");
+            cache.put(table, capacity, capacity, AggregationQuery.ALL_BOROUGHS, CovidMetric.NEW_CASES, AggregateFunction.MAX, capacity);
+            Check.isTrue(cache.size() == capacity && cache.getEvictions() == 1, "cache of " + capacity + " overfilled");
+            Check.isTrue(capacity == 1 || cache.get(table, 1, 1, AggregationQuery.ALL_BOROUGHS, CovidMetric.NEW_CASES, AggregateFunction.MAX) == null,
+                "cache of " + capacity + ": least recently used statistic dropped");
+        }
+    }
+
+    /**
+     * Checks every way of running the engine on a table against a scan of every row, and the latest values of
+     * every borough against the rows.
+     *
+     * @param table the table to check
+     * @param name what the table is, for errors
+     */
+    static void check(CovidDataTable table, String name)
+    {
+        String rollups = System.getProperty("covid.rollups");
+        ParallelScanner scanner = new ParallelScanner(4, 8);
+        List<AggregationEngine> engines = new ArrayList<>();
+        List<String> engineNames = new ArrayList<>();
+        QueryCache cache = new QueryCache(4096);
+        try
+        {
+            // The engine reads the property when it is created
+            System.clearProperty("covid.rollups");
+            engines.add(new AggregationEngine(table));
+            engineNames.add(name + ", rollups");
+            // Two engines sharing a cache, so the second answers from what the first put in it
+            engines.add(new AggregationEngine(table, null, cache));
+            engineNames.add(name + ", rollups with a cache");
+            engines.add(new AggregationEngine(table, null, cache));
+            engineNames.add(name + ", rollups from the cache");
+            System.setProperty("covid.rollups", "false");
+            engines.add(new AggregationEngine(table));
+            engineNames.add(name + ", row scan");
+            engines.add(new AggregationEngine(table, scanner));
+            engineNames.add(name + ", parallel row scan");
+        }
+        finally
+        {
+            if (rollups == null)
+            {
+                System.clearProperty("covid.rollups");
+            }
+            else
+            {
+                System.setProperty("covid.rollups", rollups);
+            }
+        }
+
+        int firstDay = table.getRowCount() == 0 ? EpochDays.parse("2020-03-01") : table.getDate(0);
+        int lastDay = table.getRowCount() == 0 ? firstDay : table.getDate(table.getRowCount() - 1);
+        try
+        {
+            for (int startDay = firstDay - 9; startDay <= lastDay + 9; startDay++)
+            {
+                for (int endDay = startDay - 1; endDay <= lastDay + 9; endDay++)
+                {
+                    for (int borough = AggregationQuery.ALL_BOROUGHS; borough < table.getBoroughCount(); borough++)
+                    {
+                        AggregationQuery query = new AggregationQuery(startDay, endDay, borough);
+                        for (CovidMetric metric : CovidMetric.values())
+                        {
+                            for (AggregateFunction function : AggregateFunction.values())
+                            {
+                                query.add(metric, function);
+                            }
+                        }
+                        double[][] expected = TestTables.scan(table, startDay, endDay, borough);
+                        for (int e = 0; e < engines.size(); e++)
+                        {
+                            check(query, engines.get(e).run(query), expected, engineNames.get(e), table);
+                        }
+                    }
+                }
+            }
+        }
+        finally
+        {
+            scanner.shutdown();
+        }
+        Check.isTrue(table.getRowCount() == 0 || cache.getHits() > 0, name + ": statistics answered from the cache");
+
+        BoroughSummaryIndex summary = table.getBoroughSummary();
+        for (int borough = 0; borough < table.getBoroughCount(); borough++)
+        {
+            for (int day = firstDay - 2; day <= lastDay + 2; day++)
+            {
+                for (CovidMetric metric : CovidMetric.values())
+                {
+                    Check.isTrue(summary.asOf(metric, borough, day) == TestTables.asOf(table, metric, borough, day),
+                        name + " latest " + metric + " of " + table.getBoroughName(borough) + " on " + EpochDays.format(day));
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks the answer to a query against the statistics worked out by reading every row.
+     */
+    private static void check(AggregationQuery query, AggregationResult result, double[][] expected, String name, CovidDataTable table)
+    {
+        for (int i = 0; i < query.size(); i++)
+        {
+            double statistic = expected[query.getMetric(i).ordinal()][query.getFunction(i).ordinal()];
+            if (!Check.same(statistic, result.getValue(i)))
+            {
+                Check.equal(statistic, result.getValue(i), name + ", " + describe(query, table) + ": " + query.getMetric(i) + " " + query.getFunction(i));
+            }
+        }
+        int rowCount = (int) expected[0][AggregateFunction.COUNT.ordinal()];
+        if (result.getRowCount() != rowCount)
+        {
+            Check.equal(rowCount, result.getRowCount(), name + ", " + describe(query, table) + ": row count");
+        }
+    }
+
+    private static String describe(AggregationQuery query, CovidDataTable table)
+    {
+        return EpochDays.format(query.getStartDay()) + " to " + EpochDays.format(query.getEndDay())
+            + (query.getBoroughId() == AggregationQuery.ALL_BOROUGHS ? "" : " in " + table.getBoroughName(query.getBoroughId()));
+    }
+}
@@ -0,0 +1,20 @@
+/**
+ * The AllTests class runs every test in turn. Each test checks the application's answers against ones worked out
+ * the slow, obvious way, on small inputs made up on the spot, so the tests need no files and always give the same
+ * result. The first failed check stops the run with an AssertionError.
+ *
+ * Usage: java AllTests
+ */
+public class AllTests
+{
+    public static void main(String[] args) throws Exception
+    {
+        EpochDaysTest.main(args);
+        CovidCsvParserTest.main(args);
+        ChoroplethClassifierTest.main(args);
+        AggregationEngineTest.main(args);
+        RollingWindowEngineTest.main(args);
+        CovidDataTableTest.main(args);
+        System.out.println("All tests passed");
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * The Check class holds the assertions the tests use. A failed check throws an AssertionError, which stops the
+ * test and is reported by AllTests.
+ */
+public final class Check
+{
+    /**
+     * The class only has static methods.
+     */
+    private Check()
+    {
+    }
+
+    /**
+     * @param condition the condition that must hold
+     * @param message what was being checked, for the error
+     */
+    public static void isTrue(boolean condition, String message)
+    {
+        if (!condition)
+        {
+            throw new AssertionError(message);
+        }
+    }
+
+    /**
+     * Checks two numbers are the same. NaN equals NaN, and numbers that only differ by rounding count as the same,
+     * as a mean worked out from running totals may be added up in a different order than the row by row mean.
+     *
+     * @param expected the right value
+     * @param actual the value to check
+     * @param message what was being checked, for the error
+     */
+    public static void equal(double expected, double actual, String message)
+    {
+        isTrue(same(expected, actual), message + ": expected " + expected + " but was " + actual);
+    }
+
+    /**
+     * @return true if the numbers are the same, as equal() checks them. Checking many numbers this way first saves
+     * putting together a message for every one of them
+     */
+    public static boolean same(double expected, double actual)
+    {
+        if (Double.isNaN(expected) || Double.isNaN(actual))
+        {
+            return Double.isNaN(expected) && Double.isNaN(actual);
+        }
+        return Math.abs(expected - actual) <= 1e-9 * Math.max(1, Math.abs(expected));
+    }
+
+    /**
+     * Checks that some code throws an exception of a given type.
+     *
+     * @param type the type of exception expected
+     * @param code the code to run
+     * @param message what was being checked, for the error
+     */
+    public static void fails(Class<? extends Exception> type, Code code, String message)
+    {
+        try
+        {
+            code.run();
+        }
+        catch (Exception e)
+        {
+            isTrue(type.isInstance(e), message + ": expected " + type.getSimpleName() + " but got " + e);
+            return;
+        }
+        throw new AssertionError(message + ": expected " + type.getSimpleName());
+    }
+
+    /**
+     * Code that may throw any exception.
+     */
+    public interface Code
+    {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,171 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks ChoroplethClassifier: Jenks breaks against the best split found by trying every split of a few values,
+ * quantile breaks against breaks worked out by hand, fixed thresholds at their edges, and NaN and empty inputs.
+ */
+public class ChoroplethClassifierTest
+{
+    public static void main(String[] args)
+    {
+        Random random = new Random(11);
+        for (int trial = 0; trial < 300; trial++)
+        {
+            int n = 1 + random.nextInt(10);
+            int classCount = 2 + random.nextInt(4);
+            double[] values = new double[n];
+            for (int i = 0; i < n; i++)
+            {
+                // Distinct values, so every split of the sorted values can be given as breaks
+                values[i] = random.nextInt(1000) + i / 1000.0;
+            }
+            jenks(values, classCount);
+        }
+        // Values that repeat, or are all the same, still give increasing breaks and classes in range
+        jenks(new double[] {5, 5, 5, 1, 1, 9}, 3);
+        jenks(new double[] {4, 4, 4, 4}, 3);
+
+        ChoroplethClassifier quantiles = new ChoroplethClassifier(ChoroplethClassifier.Method.QUANTILE, 3);
+        double[] breaks = quantiles.computeBreaks(new double[] {9, 1, 8, 2, 7, 3, 6, 4, 5});
+        Check.equal(1 + 8.0 / 3, breaks[0], "first third of 1 to 9");
+        Check.equal(1 + 16.0 / 3, breaks[1], "second third of 1 to 9");
+        Check.isTrue(Arrays.equals(ChoroplethClassifier.classify(new double[] {1, 3, 4, 6, 7, 9}, breaks),
+            new int[] {0, 0, 1, 1, 2, 2}), "classes of 1 to 9 in thirds");
+
+        double[] hundred = new double[101];
+        for (int i = 0; i < hundred.length; i++)
+        {
+            hundred[i] = 100 - i;
+        }
+        breaks = new ChoroplethClassifier(ChoroplethClassifier.Method.QUANTILE, 5).computeBreaks(hundred);
+        Check.isTrue(Arrays.equals(breaks, new double[] {20, 40, 60, 80}), "fifths of 0 to 100: " + Arrays.toString(breaks));
+        Check.isTrue(Arrays.equals(quantiles.computeBreaks(new double[] {Double.NaN, 9, 1, Double.NaN, 8, 2, 7, 3, 6, 4, 5}),
+            quantiles.computeBreaks(new double[] {9, 1, 8, 2, 7, 3, 6, 4, 5})), "NaN values are left out");
+        Check.isTrue(Arrays.equals(quantiles.computeBreaks(new double[] {7}), new double[] {7, 7}), "a single value");
+        Check.isTrue(Arrays.equals(quantiles.computeBreaks(new double[0]), new double[2]), "no values");
+        Check.isTrue(Arrays.equals(quantiles.computeBreaks(new double[] {Double.NaN}), new double[2]), "only NaN");
+
+        double[] thresholds = CovidMetric.TOTAL_DEATHS.getMapBreaks();
+        ChoroplethClassifier fixed = new ChoroplethClassifier(ChoroplethClassifier.Method.FIXED, 3, thresholds);
+        breaks = fixed.computeBreaks(new double[] {1, 2, 3});
+        Check.isTrue(Arrays.equals(breaks, new double[] {500, 1000}), "total deaths thresholds");
+        Check.isTrue(Arrays.equals(ChoroplethClassifier.classify(new double[] {0, 499, 500, 500.5, 1000, 1001, Double.NaN}, breaks),
+            new int[] {0, 0, 0, 1, 1, 2, -1}), "classes at the total deaths thresholds");
+        Check.isTrue(CovidMetric.NEW_CASES.getMapBreaks() == null, "new cases has no thresholds");
+        mapBreaksProperty();
+
+        Check.fails(IllegalArgumentException.class, () -> new ChoroplethClassifier(ChoroplethClassifier.Method.FIXED, 3, new double[] {1}),
+            "too few thresholds");
+        Check.fails(IllegalArgumentException.class, () -> new ChoroplethClassifier(ChoroplethClassifier.Method.JENKS, 1),
+            "a single class");
+        System.out.println("ChoroplethClassifierTest passed");
+    }
+
+    /**
+     * Checks thresholds given with a covid.map.breaks property are used, and ignored if they are not numbers in
+     * increasing order.
+     */
+    private static void mapBreaksProperty()
+    {
+        String quiet = System.setProperty("covid.quiet", "true");
+        try
+        {
+            System.setProperty("covid.map.breaks.NEW_CASES", "1000, 5000");
+            Check.isTrue(Arrays.equals(CovidMetric.NEW_CASES.getMapBreaks(), new double[] {1000, 5000}), "new cases thresholds");
+            System.setProperty("covid.map.breaks.NEW_CASES", "5000,1000");
+            Check.isTrue(CovidMetric.NEW_CASES.getMapBreaks() == null, "thresholds out of order");
+            System.setProperty("covid.map.breaks.NEW_CASES", "1000,NaN");
+            Check.isTrue(CovidMetric.NEW_CASES.getMapBreaks() == null, "a threshold that is not a number");
+            System.setProperty("covid.map.breaks.TOTAL_DEATHS", "1000,many");
+            Check.isTrue(Arrays.equals(CovidMetric.TOTAL_DEATHS.getMapBreaks(), new double[] {500, 1000}), "total deaths thresholds kept");
+        }
+        finally
+        {
+            System.clearProperty("covid.map.breaks.NEW_CASES");
+            System.clearProperty("covid.map.breaks.TOTAL_DEATHS");
+            if (quiet == null)
+            {
+                System.clearProperty("covid.quiet");
+            }
+            else
+            {
+                System.setProperty("covid.quiet", quiet);
+            }
+        }
+    }
+
+    /**
+     * Checks the Jenks breaks of some values split them as well as the best of every possible split.
+     */
+    private static void jenks(double[] values, int classCount)
+    {
+        String name = "Jenks " + classCount + " classes of " + Arrays.toString(values);
+        double[] breaks = new ChoroplethClassifier(ChoroplethClassifier.Method.JENKS, classCount).computeBreaks(values);
+        Check.isTrue(breaks.length == classCount - 1, name + ": number of breaks");
+        for (int b = 1; b < breaks.length; b++)
+        {
+            Check.isTrue(breaks[b - 1] <= breaks[b], name + ": breaks in order");
+        }
+        int[] classes = ChoroplethClassifier.classify(values, breaks);
+        double[][] groups = new double[classCount][];
+        for (int c = 0; c < classCount; c++)
+        {
+            int size = 0;
+            for (int i = 0; i < values.length; i++)
+            {
+                Check.isTrue(classes[i] >= 0 && classes[i] < classCount, name + ": class in range");
+                if (classes[i] == c)
+                {
+                    size++;
+                }
+            }
+            groups[c] = new double[size];
+            for (int i = 0, g = 0; i < values.length; i++)
+            {
+                if (classes[i] == c)
+                {
+                    groups[c][g++] = values[i];
+                }
+            }
+        }
+        double cost = 0;
+        for (double[] group : groups)
+        {
+            cost += squaredDeviation(group);
+        }
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        Check.equal(bestCost(sorted, 0, Math.min(classCount, sorted.length)), cost, name + ": total squared deviation");
+    }
+
+    /**
+     * @return the smallest total squared deviation of splitting the sorted values from index from to the end into
+     * the given number of classes, trying every split
+     */
+    private static double bestCost(double[] sorted, int from, int classes)
+    {
+        if (classes == 1)
+        {
+            return squaredDeviation(Arrays.copyOfRange(sorted, from, sorted.length));
+        }
+        double best = Double.POSITIVE_INFINITY;
+        for (int end = from + 1; end <= sorted.length - classes + 1; end++)
+        {
+            double cost = squaredDeviation(Arrays.copyOfRange(sorted, from, end)) + bestCost(sorted, end, classes - 1);
+            best = Math.min(best, cost);
+        }
+        return best;
+    }
+
+    private static double squaredDeviation(double[] values)
+    {
+        double mean = Arrays.stream(values).average().orElse(0);
+        double total = 0;
+        for (double value : values)
+        {
+            total += (value - mean) * (value - mean);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,192 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks CovidCsvParser on small files written out by hand and on a generated file with the rows it was written
+ * from: line endings, empty and quoted fields, blank lines, a last row still being written, and rows split across
+ * reads.
+ */
+public class CovidCsvParserTest
+{
+    private static final String HEADER = TestTables.CSV_HEADER;
+
+    public static void main(String[] args) throws IOException
+    {
+        String rows = "2020-03-01,Camden,-10,2,35,-20,-5,4,12,100,1,7\n"
+            + "2020-03-01,Barnet,0,0,0,0,0,0,3,50,0,2\n"
+            + "2020-03-02,Camden,-12,1,30,-25,-6,5,9,109,0,7\n";
+        List<String> expected = List.of(
+            "2020-03-01|Camden|-10,2,35,-20,-5,4,12,100,1,7",
+            "2020-03-01|Barnet|0,0,0,0,0,0,3,50,0,2",
+            "2020-03-02|Camden|-12,1,30,-25,-6,5,9,109,0,7");
+        Check.isTrue(parse(HEADER + rows, true, false).equals(expected), "LF line endings");
+        Check.isTrue(parse(crlf(HEADER + rows), true, false).equals(expected), "CRLF line endings");
+        Check.isTrue(parse(rows, false, false).equals(expected), "no header");
+        Check.isTrue(parse(HEADER + rows.substring(0, rows.length() - 1), true, false).equals(expected), "no line break at the end");
+        Check.isTrue(parse(HEADER + "\n" + rows + "\r\n\n", true, false).equals(expected), "blank lines");
+        Check.isTrue(parse("", true, false).isEmpty() && parse(HEADER, true, false).isEmpty(), "no rows");
+
+        Check.isTrue(parse("2020-03-01,Camden,,,,,,,5,,,\r\n", false, false)
+            .equals(List.of("2020-03-01|Camden|0,0,0,0,0,0,5,0,0,0")), "empty fields");
+        Check.isTrue(parse("2020-03-01,Camden,1,2\n", false, false)
+            .equals(List.of("2020-03-01|Camden|1,2,0,0,0,0,0,0,0,0")), "missing fields");
+        Check.isTrue(parse("\"2020-03-01\",\"Kensington, Chelsea\",\"1\",2,3,4,5,6,7,8,9,\"10\"\r\n"
+            + "2020-03-01,\"The \"\"City\"\"\",1,2,3,4,5,6,7,8,9,10\n", false, false)
+            .equals(List.of("2020-03-01|Kensington, Chelsea|1,2,3,4,5,6,7,8,9,10",
+                "2020-03-01|The \"City\"|1,2,3,4,5,6,7,8,9,10")), "quoted fields");
+        Check.fails(NumberFormatException.class, () -> parse("2020-03-01,Camden,1,x,3,4,5,6,7,8,9,10\n", false, false),
+            "a field that is not a number");
+
+        partialLastRow(HEADER + rows);
+        partialLastRow(crlf(HEADER + rows));
+        generatedFile();
+        System.out.println("CovidCsvParserTest passed");
+    }
+
+    /**
+     * Cuts the data at every byte of its last row, and checks the cut row is only read once the rest of it is.
+     */
+    private static void partialLastRow(String data) throws IOException
+    {
+        List<String> all = parse(data, true, false);
+        int lastRowStart = data.lastIndexOf('\n', data.length() - 2) + 1;
+        for (int cut = lastRowStart; cut < data.length(); cut++)
+        {
+            byte[] bytes = data.substring(0, cut).getBytes(StandardCharsets.UTF_8);
+            CovidCsvParser parser = new CovidCsvParser(new ByteArrayInputStream(bytes), true, true);
+            List<String> read = collect(parser);
+            Check.isTrue(read.equals(all.subList(0, all.size() - 1)), "rows before a last row cut at " + cut);
+            Check.isTrue(parser.getRowsEnd() == lastRowStart, "end of the complete rows, cut at " + cut);
+
+            // Once the row is finished, reading on from the end of the complete rows gives just that row
+            byte[] rest = data.substring(lastRowStart).getBytes(StandardCharsets.UTF_8);
+            CovidCsvParser tail = new CovidCsvParser(new ByteArrayInputStream(rest), false, true);
+            Check.isTrue(collect(tail).equals(all.subList(all.size() - 1, all.size())), "finished last row");
+            Check.isTrue(tail.getRowsEnd() == rest.length, "end of the finished last row");
+        }
+        // Without completeRowsOnly, a last row with no line break is read like any other
+        String unfinished = data.substring(0, data.length() - (data.endsWith("\r\n") ? 2 : 1));
+        Check.isTrue(parse(unfinished, true, false).equals(all), "last row without a line break");
+        Check.isTrue(parse(unfinished, true, true).equals(all.subList(0, all.size() - 1)), "last row held back");
+    }
+
+    /**
+     * Writes a file much larger than the parser's buffer with random line endings and quoting, and reads it back
+     * in one go and a few bytes at a time.
+     */
+    private static void generatedFile() throws IOException
+    {
+        Random random = new Random(42);
+        String[] boroughs = {"Camden", "Barnet", "Kensington, Chelsea", "Tower Hamlets"};
+        StringBuilder data = new StringBuilder(HEADER);
+        List<String> expected = new ArrayList<>();
+        int day = EpochDays.parse("2020-02-01");
+        for (int row = 0; row < 20000; row++)
+        {
+            if (random.nextInt(4) == 0)
+            {
+                day++;
+            }
+            String borough = boroughs[random.nextInt(boroughs.length)];
+            int[] values = new int[CovidMetric.values().length];
+            StringBuilder line = new StringBuilder(EpochDays.format(day)).append(',');
+            line.append(borough.indexOf(',') >= 0 || random.nextBoolean() ? "\"" + borough + "\"" : borough);
+            for (int v = 0; v < values.length; v++)
+            {
+                values[v] = random.nextInt(2000) - 100;
+                line.append(',').append(random.nextInt(10) == 0 ? "\"" + values[v] + "\"" : String.valueOf(values[v]));
+            }
+            data.append(line).append(random.nextBoolean() ? "\r\n" : "\n");
+            expected.add(EpochDays.format(day) + "|" + borough + "|" + join(values));
+        }
+        byte[] bytes = data.toString().getBytes(StandardCharsets.UTF_8);
+        Check.isTrue(collect(new CovidCsvParser(new ByteArrayInputStream(bytes))).equals(expected), "generated file");
+
+        CovidCsvParser parser = new CovidCsvParser(new TrickleInputStream(bytes, 7), true, true);
+        Check.isTrue(collect(parser).equals(expected), "generated file read a few bytes at a time");
+        Check.isTrue(parser.getRowsEnd() == bytes.length, "end of the generated file");
+
+        // The same String object is handed over for every row of a borough
+        String[] seen = new String[1];
+        new CovidCsvParser(new ByteArrayInputStream(bytes)).parse((epochDay, borough, values) -> {
+            if (borough.equals("Camden"))
+            {
+                Check.isTrue(seen[0] == null || seen[0] == borough, "one String per borough");
+                seen[0] = borough;
+            }
+            return true;
+        });
+    }
+
+    private static List<String> parse(String data, boolean hasHeader, boolean completeRowsOnly) throws IOException
+    {
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        return collect(new CovidCsvParser(new ByteArrayInputStream(bytes), hasHeader, completeRowsOnly));
+    }
+
+    /**
+     * @return every row of the data as date|borough|values
+     */
+    private static List<String> collect(CovidCsvParser parser) throws IOException
+    {
+        List<String> rows = new ArrayList<>();
+        while (parser.nextRow())
+        {
+            Check.isTrue(parser.getEpochDay() == EpochDays.parse(parser.getDate()), "epoch day of " + parser.getDate());
+            rows.add(parser.getDate() + "|" + parser.getBorough() + "|" + join(parser.getValues()));
+        }
+        return rows;
+    }
+
+    private static String join(int[] values)
+    {
+        String text = Arrays.toString(values);
+        return text.substring(1, text.length() - 1).replace(" ", "");
+    }
+
+    private static String crlf(String text)
+    {
+        return text.replace("\n", "\r\n");
+    }
+
+    /**
+     * An InputStream that hands over at most a few bytes per read, as a file that is still being written might.
+     */
+    private static class TrickleInputStream extends InputStream
+    {
+        private final byte[] bytes;
+        private final int chunk;
+        private int position;
+
+        TrickleInputStream(byte[] bytes, int chunk)
+        {
+            this.bytes = bytes;
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int read()
+        {
+            return position < bytes.length ? bytes[position++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length)
+        {
+            if (position == bytes.length)
+            {
+                return -1;
+            }
+            int count = Math.min(Math.min(length, chunk), bytes.length - position);
+            System.arraycopy(bytes, position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+    }
+}
@@ -0,0 +1,298 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that a table grown by appending rows a few at a time, as when the csv file is written to while the
+ * application runs, holds the same rows and indexes as a table built from every row at once, that the tables it
+ * grew from are left as they were, and that rows added out of date order are sorted into place. Also checks that
+ * CovidDataLoader leaves a row that is still being written for later, when the application starts and as rows are
+ * appended, and skips appended rows that cannot be read.
+ */
+public class CovidDataTableTest
+{
+    public static void main(String[] args) throws IOException
+    {
+        List<TestTables.Row> rows = TestTables.rows(4, 80);
+        Random random = new Random(8);
+
+        // Grow the table a few rows at a time, from an empty one, keeping every table on the way
+        List<CovidDataTable> tables = new ArrayList<>();
+        List<Integer> sizes = new ArrayList<>();
+        CovidDataTable table = TestTables.table(new ArrayList<>());
+        int size = 0;
+        while (size < rows.size())
+        {
+            int added = Math.min(rows.size() - size, random.nextInt(12));
+            CovidDataTable.Builder builder = new CovidDataTable.Builder(table, added);
+            for (TestTables.Row row : rows.subList(size, size + added))
+            {
+                builder.addRow(row.day, builder.boroughId(row.borough), row.values);
+            }
+            table = builder.build();
+            size += added;
+            tables.add(table);
+            sizes.add(size);
+        }
+        for (int i = 0; i < tables.size(); i++)
+        {
+            same(TestTables.table(rows.subList(0, sizes.get(i))), tables.get(i), "table of " + sizes.get(i) + " appended rows");
+        }
+
+        // A table can only be grown in place once, so a second table built on the same one has to copy its rows
+        CovidDataTable base = TestTables.table(rows.subList(0, 200));
+        CovidDataTable first = append(base, rows.subList(200, 230));
+        CovidDataTable second = append(base, rows.subList(200, 260));
+        same(TestTables.table(rows.subList(0, 200)), base, "table appended to twice");
+        same(TestTables.table(rows.subList(0, 230)), first, "first table appended to the same table");
+        same(TestTables.table(rows.subList(0, 260)), second, "second table appended to the same table");
+
+        // Rows for earlier days, and for a borough the table did not have, are sorted into place
+        List<TestTables.Row> late = new ArrayList<>(rows.subList(200, 260));
+        late.add(new TestTables.Row(rows.get(3).day, "Southwark", rows.get(3).values));
+        Collections.shuffle(late, random);
+        CovidDataTable sorted = append(base, late);
+        List<TestTables.Row> expected = new ArrayList<>(rows.subList(0, 200));
+        expected.addAll(late);
+        same(TestTables.table(expected), sorted, "table appended to out of date order");
+
+        // A table built from rows in no order holds them in date order
+        CovidDataTable shuffled = TestTables.table(late);
+        for (int row = 1; row < shuffled.getRowCount(); row++)
+        {
+            Check.isTrue(shuffled.getDate(row - 1) <= shuffled.getDate(row), "rows sorted by date");
+        }
+        String quiet = System.setProperty("covid.quiet", "true");
+        String snapshot = System.setProperty("covid.snapshot", "false");
+        try
+        {
+            unfinishedRow(rows);
+            badRows(rows);
+            snapshot(rows);
+        }
+        finally
+        {
+            restore("covid.quiet", quiet);
+            restore("covid.snapshot", snapshot);
+        }
+        System.out.println("CovidDataTableTest passed");
+    }
+
+    /**
+     * Loads a csv file whose last row is cut short, as when the application starts while a row is being written,
+     * then finishes the row, appends more and reads the appended rows.
+     */
+    private static void unfinishedRow(List<TestTables.Row> rows) throws IOException
+    {
+        String complete = TestTables.CSV_HEADER + TestTables.csv(rows.subList(0, 100));
+        String unfinished = TestTables.csv(rows.subList(100, 101));
+        String appended = TestTables.csv(rows.subList(101, 120));
+        File csvFile = File.createTempFile("covid-test", ".csv");
+        try
+        {
+            // Cut inside the date, inside the borough, inside a number and just before the line break
+            for (int cut : new int[] {4, 13, unfinished.length() - 3, unfinished.length() - 1})
+            {
+                String name = "row cut after " + cut + " characters";
+                write(csvFile, complete + unfinished.substring(0, cut), false);
+                CovidDataLoader loader = new CovidDataLoader();
+                CovidDataTable table = loader.loadTable(csvFile);
+                same(TestTables.table(rows.subList(0, 100)), table, name);
+                Check.isTrue(loader.getBytesParsed() == complete.length(), name + ": bytes parsed");
+
+                write(csvFile, unfinished.substring(cut) + appended, true);
+                CovidDataTable grown = loader.loadTail(table, csvFile, loader.getBytesParsed());
+                same(TestTables.table(rows.subList(0, 120)), grown, name + ", then finished");
+                Check.isTrue(loader.getBytesParsed() == csvFile.length(), name + ", then finished: bytes parsed");
+            }
+        }
+        finally
+        {
+            csvFile.delete();
+        }
+    }
+
+    /**
+     * Appends rows with a bad date and a bad number among good ones, and checks the bad rows are skipped, once,
+     * without holding up the good rows after them.
+     */
+    private static void badRows(List<TestTables.Row> rows) throws IOException
+    {
+        File csvFile = File.createTempFile("covid-test", ".csv");
+        try
+        {
+            write(csvFile, TestTables.CSV_HEADER + TestTables.csv(rows.subList(0, 100)), false);
+            CovidDataLoader loader = new CovidDataLoader();
+            CovidDataTable table = loader.loadTable(csvFile);
+            write(csvFile, TestTables.csv(rows.subList(100, 110)) + "2020-13-45,Camden,1,2,3,4,5,6,7,8,9,10\n"
+                + TestTables.csv(rows.subList(110, 120)) + "2020-03-01,Camden,1,x,3,4,5,6,7,8,9,10\r\n"
+                + TestTables.csv(rows.subList(120, 125)), true);
+            CovidDataTable grown = loader.loadTail(table, csvFile, loader.getBytesParsed());
+            same(TestTables.table(rows.subList(0, 125)), grown, "rows appended around bad rows");
+            Check.isTrue(loader.getBytesParsed() == csvFile.length(), "bad rows: bytes parsed");
+
+            // Only rows appended after the bad ones are read next time
+            write(csvFile, "2020-03-01,Camden,1,2,3,4,5,6,7,8,9,x\n" + TestTables.csv(rows.subList(125, 130)), true);
+            grown = loader.loadTail(grown, csvFile, loader.getBytesParsed());
+            same(TestTables.table(rows.subList(0, 130)), grown, "rows appended after bad rows");
+            Check.isTrue(loader.getBytesParsed() == csvFile.length(), "after bad rows: bytes parsed");
+
+            // A bad row that is not finished yet is left for later, like any other
+            String unfinished = "2020-03-01,Camden,1,x";
+            write(csvFile, unfinished, true);
+            Check.isTrue(loader.loadTail(grown, csvFile, loader.getBytesParsed()) == grown, "unfinished bad row");
+            Check.isTrue(loader.getBytesParsed() == csvFile.length() - unfinished.length(), "unfinished bad row: bytes parsed");
+        }
+        finally
+        {
+            csvFile.delete();
+        }
+    }
+
+    /**
+     * Loads a csv file with snapshots on, then loads it again from the snapshot saved the first time, and checks
+     * the snapshot is not used once rows are appended to the file.
+     */
+    private static void snapshot(List<TestTables.Row> rows) throws IOException
+    {
+        File csvFile = File.createTempFile("covid-test", ".csv");
+        File snapshotFile = CovidSnapshot.snapshotFileFor(csvFile);
+        System.setProperty("covid.snapshot", "true");
+        try
+        {
+            write(csvFile, TestTables.CSV_HEADER + TestTables.csv(rows.subList(0, 100)), false);
+            new CovidDataLoader().loadTable(csvFile);
+            Check.isTrue(snapshotFile.exists(), "snapshot saved");
+
+            CovidDataLoader loader = new CovidDataLoader();
+            same(TestTables.table(rows.subList(0, 100)), loader.loadTable(csvFile), "table from the snapshot");
+            Check.isTrue(loader.getBytesParsed() == csvFile.length(), "table from the snapshot: bytes parsed");
+
+            write(csvFile, TestTables.csv(rows.subList(100, 110)), true);
+            same(TestTables.table(rows.subList(0, 110)), new CovidDataLoader().loadTable(csvFile), "table with rows added after the snapshot");
+        }
+        finally
+        {
+            System.setProperty("covid.snapshot", "false");
+            csvFile.delete();
+            snapshotFile.delete();
+        }
+    }
+
+    private static void write(File file, String text, boolean append) throws IOException
+    {
+        try (OutputStream out = new FileOutputStream(file, append))
+        {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void restore(String property, String value)
+    {
+        if (value == null)
+        {
+            System.clearProperty(property);
+        }
+        else
+        {
+            System.setProperty(property, value);
+        }
+    }
+
+    private static CovidDataTable append(CovidDataTable base, List<TestTables.Row> rows)
+    {
+        CovidDataTable.Builder builder = new CovidDataTable.Builder(base, rows.size());
+        for (TestTables.Row row : rows)
+        {
+            builder.addRow(row.day, builder.boroughId(row.borough), row.values);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Checks two tables hold the same rows, in the same order, and that their indexes give the same answers.
+     * Boroughs are compared by name, as a table grown from another keeps that table's borough ids.
+     */
+    private static void same(CovidDataTable expected, CovidDataTable actual, String name)
+    {
+        Check.isTrue(expected.getRowCount() == actual.getRowCount(), name + ": row count");
+        Check.isTrue(expected.getBoroughCount() == actual.getBoroughCount(), name + ": borough count");
+        int[] boroughs = new int[expected.getBoroughCount()]; // The id in actual of each borough of expected
+        for (int borough = 0; borough < boroughs.length; borough++)
+        {
+            boroughs[borough] = actual.getBoroughId(expected.getBoroughName(borough));
+            Check.isTrue(boroughs[borough] >= 0, name + ": has " + expected.getBoroughName(borough));
+        }
+        for (int row = 0; row < expected.getRowCount(); row++)
+        {
+            Check.isTrue(expected.getDate(row) == actual.getDate(row)
+                && boroughs[expected.getBoroughId(row)] == actual.getBoroughId(row), name + ": row " + row);
+            for (CovidMetric metric : CovidMetric.values())
+            {
+                Check.isTrue(expected.getValue(metric, row) == actual.getValue(metric, row), name + ": " + metric + " of row " + row);
+            }
+        }
+        if (expected.getRowCount() == 0)
+        {
+            return;
+        }
+
+        int firstDay = expected.getDate(0);
+        int lastDay = expected.getDate(expected.getRowCount() - 1);
+        for (int borough = AggregationQuery.ALL_BOROUGHS; borough < boroughs.length; borough++)
+        {
+            int other = borough == AggregationQuery.ALL_BOROUGHS ? borough : boroughs[borough];
+            if (borough != AggregationQuery.ALL_BOROUGHS)
+            {
+                Check.isTrue(expected.getBoroughRowCount(borough) == actual.getBoroughRowCount(other), name + ": borough rows");
+                for (int i = 0; i < expected.getBoroughRowCount(borough); i++)
+                {
+                    Check.isTrue(expected.getBoroughRows(borough)[i] == actual.getBoroughRows(other)[i], name + ": borough rows");
+                }
+            }
+            for (RollupIndex.Granularity granularity : RollupIndex.Granularity.values())
+            {
+                RollupIndex rollups = expected.getRollups();
+                RollupIndex otherRollups = actual.getRollups();
+                String buckets = name + ": " + granularity + " buckets of borough " + borough;
+                Check.isTrue(rollups.bucketCount(granularity, borough) == otherRollups.bucketCount(granularity, other), buckets);
+                for (int bucket = 0; bucket < rollups.bucketCount(granularity, borough); bucket++)
+                {
+                    Check.isTrue(rollups.bucketStartDay(granularity, borough, bucket) == otherRollups.bucketStartDay(granularity, other, bucket)
+                        && rollups.count(granularity, borough, bucket) == otherRollups.count(granularity, other, bucket), buckets);
+                    for (CovidMetric metric : CovidMetric.values())
+                    {
+                        Check.isTrue(rollups.sum(granularity, metric, borough, bucket) == otherRollups.sum(granularity, metric, other, bucket)
+                            && rollups.min(granularity, metric, borough, bucket) == otherRollups.min(granularity, metric, other, bucket)
+                            && rollups.max(granularity, metric, borough, bucket) == otherRollups.max(granularity, metric, other, bucket),
+                            buckets + " " + metric);
+                    }
+                }
+            }
+            for (int startDay = firstDay - 1; startDay <= lastDay + 1; startDay += 3)
+            {
+                for (int endDay = startDay; endDay <= lastDay + 1; endDay += 2)
+                {
+                    for (CovidMetric metric : CovidMetric.values())
+                    {
+                        boolean london = borough == AggregationQuery.ALL_BOROUGHS;
+                        Check.isTrue((london ? expected.getPrefixSums().sum(metric, startDay, endDay) : expected.getPrefixSums().sum(metric, borough, startDay, endDay))
+                            == (london ? actual.getPrefixSums().sum(metric, startDay, endDay) : actual.getPrefixSums().sum(metric, other, startDay, endDay)),
+                            name + ": running total of " + metric);
+                        if (!london)
+                        {
+                            Check.isTrue(expected.getBoroughSummary().asOf(metric, borough, endDay) == actual.getBoroughSummary().asOf(metric, other, endDay),
+                                name + ": latest " + metric);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
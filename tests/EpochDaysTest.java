@@ -0,0 +1,42 @@
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+
+/**
+ * Checks EpochDays against LocalDate for every day from 1900 to 2100, which covers month ends, leap days and the
+ * leap years of 1900 (not one) and 2000 (one), and checks that dates that do not exist are refused.
+ */
+public class EpochDaysTest
+{
+    public static void main(String[] args)
+    {
+        int first = (int) LocalDate.of(1900, 1, 1).toEpochDay();
+        int last = (int) LocalDate.of(2100, 12, 31).toEpochDay();
+        for (int day = first; day <= last; day++)
+        {
+            LocalDate date = LocalDate.ofEpochDay(day);
+            String text = date.toString();
+            Check.isTrue(EpochDays.format(day).equals(text), "format " + text);
+            Check.isTrue(EpochDays.parse(text) == day, "parse " + text);
+            byte[] bytes = (" " + text + ",").getBytes(StandardCharsets.US_ASCII);
+            Check.isTrue(EpochDays.parse(bytes, 1, 11) == day, "parse bytes " + text);
+            Check.isTrue(EpochDays.of(date.getYear(), date.getMonthValue(), date.getDayOfMonth()) == day, "of " + text);
+
+            int month = EpochDays.monthOf(day);
+            Check.isTrue(month == date.getYear() * 12 + date.getMonthValue() - 1, "monthOf " + text);
+            Check.isTrue(EpochDays.firstDayOfMonth(month) == date.withDayOfMonth(1).toEpochDay(), "firstDayOfMonth " + text);
+        }
+
+        Check.isTrue(EpochDays.parse("2020-02-29") == LocalDate.of(2020, 2, 29).toEpochDay(), "leap day");
+        Check.isTrue(EpochDays.parse("1970-01-01") == 0, "epoch");
+        Check.isTrue(EpochDays.parse("1969-12-31") == -1, "day before the epoch");
+        for (String invalid : new String[] {"2021-02-29", "1900-02-29", "2020-04-31", "2020-13-01", "2020-00-10",
+            "2020-01-00", "2020-1-01", "2020/01/01", "2020-01-1x", "", "20200101"})
+        {
+            Check.fails(DateTimeException.class, () -> EpochDays.parse(invalid), "parse \"" + invalid + "\"");
+            byte[] bytes = invalid.getBytes(StandardCharsets.US_ASCII);
+            Check.fails(DateTimeException.class, () -> EpochDays.parse(bytes, 0, bytes.length), "parse bytes \"" + invalid + "\"");
+        }
+        System.out.println("EpochDaysTest passed");
+    }
+}
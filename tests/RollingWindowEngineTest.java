@@ -0,0 +1,90 @@
+/**
+ * Checks RollingWindowEngine against sums over each window worked out by reading every row, for windows of
+ * several lengths, for every borough at once and for each borough on its own, over ranges that start before the
+ * data, end after it and cross the day without rows.
+ */
+public class RollingWindowEngineTest
+{
+    public static void main(String[] args)
+    {
+        CovidDataTable table = TestTables.table(TestTables.rows(3, 60));
+        RollingWindowEngine engine = new RollingWindowEngine(table);
+        int firstDay = table.getDate(0);
+        int lastDay = table.getDate(table.getRowCount() - 1);
+        int[][] ranges = {
+            {firstDay - 30, lastDay + 10},
+            {firstDay, firstDay},
+            {firstDay + 17, firstDay + 24},
+            {lastDay, lastDay + 40},
+            {firstDay - 50, firstDay - 20}};
+
+        for (int windowDays : new int[] {1, 2, RollingWindowEngine.WEEK, 10, RollingWindowEngine.FOUR_WEEKS})
+        {
+            for (CovidMetric metric : new CovidMetric[] {CovidMetric.NEW_CASES, CovidMetric.PARKS_GMR})
+            {
+                for (int[] range : ranges)
+                {
+                    RollingWindowEngine.RollingSeries all = engine.compute(metric, windowDays, range[0], range[1]);
+                    check(table, all, AggregationQuery.ALL_BOROUGHS, range[0], range[1]);
+                    for (int borough = 0; borough < table.getBoroughCount(); borough++)
+                    {
+                        RollingWindowEngine.RollingSeries one = engine.compute(metric, windowDays, range[0], range[1], borough);
+                        check(table, one, borough, range[0], range[1]);
+                    }
+                }
+            }
+        }
+
+        Check.fails(IllegalArgumentException.class, () -> engine.compute(CovidMetric.NEW_CASES, 0, firstDay, lastDay),
+            "a window of no days");
+        Check.fails(IllegalArgumentException.class, () -> engine.compute(CovidMetric.NEW_CASES, 7, lastDay, firstDay),
+            "a range that ends before it starts");
+        System.out.println("RollingWindowEngineTest passed");
+    }
+
+    /**
+     * Checks every figure of a series against the rows.
+     *
+     * @param followed the borough the series was worked out for, or AggregationQuery.ALL_BOROUGHS
+     */
+    private static void check(CovidDataTable table, RollingWindowEngine.RollingSeries series, int followed, int startDay, int endDay)
+    {
+        int windowDays = series.getWindowDays();
+        String name = series.getMetric() + " over " + windowDays + " days from " + EpochDays.format(startDay)
+            + (followed == AggregationQuery.ALL_BOROUGHS ? "" : " for " + table.getBoroughName(followed));
+        Check.isTrue(series.getStartDay() == startDay && series.getDayCount() == endDay - startDay + 1, name + ": days");
+        Check.isTrue(series.getBoroughCount() == table.getBoroughCount(), name + ": boroughs");
+        for (int borough = 0; borough < table.getBoroughCount(); borough++)
+        {
+            boolean expected = followed == AggregationQuery.ALL_BOROUGHS || followed == borough;
+            Check.isTrue(series.hasBorough(borough) == expected, name + ": has " + table.getBoroughName(borough));
+            if (!expected)
+            {
+                continue;
+            }
+            for (int index = 0; index < series.getDayCount(); index++)
+            {
+                int day = startDay + index;
+                double[][] window = TestTables.scan(table, day - windowDays + 1, day, borough);
+                double[][] previous = TestTables.scan(table, day - 2 * windowDays + 1, day - windowDays, borough);
+                double sum = window[series.getMetric().ordinal()][AggregateFunction.SUM.ordinal()];
+                double count = window[series.getMetric().ordinal()][AggregateFunction.COUNT.ordinal()];
+                double previousSum = previous[series.getMetric().ordinal()][AggregateFunction.SUM.ordinal()];
+                String where = name + ", " + table.getBoroughName(borough) + " on " + EpochDays.format(day);
+                Check.equal(sum, series.sum(borough, index), where + ": sum");
+                Check.equal(count, series.count(borough, index), where + ": count");
+                Check.equal(window[series.getMetric().ordinal()][AggregateFunction.MEAN.ordinal()], series.mean(borough, index), where + ": mean");
+                Check.equal(previousSum == 0 ? Double.NaN : (sum - previousSum) / previousSum, series.rate(borough, index), where + ": rate");
+            }
+        }
+        for (int index = 0; index < series.getDayCount(); index += 5)
+        {
+            double[] means = series.meansOn(index);
+            for (int borough = 0; borough < table.getBoroughCount(); borough++)
+            {
+                Check.equal(series.hasBorough(borough) ? series.mean(borough, index) : Double.NaN, means[borough],
+                    name + ": map value of " + table.getBoroughName(borough) + " on day " + index);
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The TestTables class makes up small datasets for the tests, and answers questions about them by reading every
+ * row, the slow, obvious way, for the tests to compare the application's answers with.
+ */
+public final class TestTables
+{
+    /**
+     * The row of column titles of the csv file.
+     */
+    public static final String CSV_HEADER = "date,area_name,retail_and_recreation,grocery_and_pharmacy,parks,"
+        + "transit_stations,workplaces,residential,new_cases,total_cases,new_deaths,total_deaths\n";
+
+    /**
+     * The class only has static methods.
+     */
+    private TestTables()
+    {
+    }
+
+    /**
+     * One made-up row of a dataset.
+     */
+    public static final class Row
+    {
+        public final int day;
+        public final String borough;
+        public final int[] values;
+
+        Row(int day, String borough, int[] values)
+        {
+            this.day = day;
+            this.borough = borough;
+            this.values = values;
+        }
+    }
+
+    /**
+     * Makes up the rows of a dataset, in date order. The rows start on a Monday late in January 2020 and run for the
+     * given number of days, across the leap day and several month ends. Boroughs skip some days, now and then have
+     * two rows on one day, and have empty (0) running totals on some days. One day in the middle has no rows at all,
+     * and the last borough only starts halfway through. Mobility values go below zero.
+     *
+     * @param seed the seed of the random values, so the same seed always gives the same rows
+     * @param days the number of days to make rows for
+     * @return the rows
+     */
+    public static List<Row> rows(long seed, int days)
+    {
+        Random random = new Random(seed);
+        String[] boroughs = {"Barnet", "Camden", "Hackney", "Lambeth", "Westminster"};
+        int firstDay = EpochDays.parse("2020-01-27");
+        int[][] totals = new int[boroughs.length][2];
+        List<Row> rows = new ArrayList<>();
+        for (int d = 0; d < days; d++)
+        {
+            if (d == days / 3)
+            {
+                continue;
+            }
+            for (int b = 0; b < boroughs.length; b++)
+            {
+                if ((b == boroughs.length - 1 && d < days / 2) || random.nextInt(6) == 0)
+                {
+                    continue;
+                }
+                int copies = random.nextInt(15) == 0 ? 2 : 1;
+                for (int c = 0; c < copies; c++)
+                {
+                    int[] values = new int[CovidMetric.values().length];
+                    for (CovidMetric metric : CovidMetric.values())
+                    {
+                        values[metric.ordinal()] = random.nextInt(130) - 90;
+                    }
+                    int newCases = random.nextInt(60);
+                    int newDeaths = random.nextInt(4);
+                    totals[b][0] += newCases;
+                    totals[b][1] += newDeaths;
+                    values[CovidMetric.NEW_CASES.ordinal()] = newCases;
+                    values[CovidMetric.NEW_DEATHS.ordinal()] = newDeaths;
+                    values[CovidMetric.TOTAL_CASES.ordinal()] = random.nextInt(10) == 0 ? 0 : totals[b][0];
+                    values[CovidMetric.TOTAL_DEATHS.ordinal()] = random.nextInt(10) == 0 ? 0 : totals[b][1];
+                    rows.add(new Row(firstDay + d, boroughs[b], values));
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * @return a table holding the rows
+     */
+    public static CovidDataTable table(List<Row> rows)
+    {
+        CovidDataTable.Builder builder = new CovidDataTable.Builder();
+        for (Row row : rows)
+        {
+            builder.addRow(row.day, builder.boroughId(row.borough), row.values);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the rows written as csv lines, each ending with a line break
+     */
+    public static String csv(List<Row> rows)
+    {
+        StringBuilder csv = new StringBuilder();
+        for (Row row : rows)
+        {
+            csv.append(EpochDays.format(row.day)).append(',').append(row.borough);
+            for (int value : row.values)
+            {
+                csv.append(',').append(value);
+            }
+            csv.append('\n');
+        }
+        return csv.toString();
+    }
+
+    /**
+     * Works out every statistic of a date range by reading every row of the table.
+     *
+     * @param table the table
+     * @param startDay the first day of the range, as an epoch day
+     * @param endDay the last day of the range, as an epoch day
+     * @param boroughId the borough, or AggregationQuery.ALL_BOROUGHS
+     * @return the statistics, indexed by metric ordinal and then aggregate function ordinal. The mean, minimum and
+     * maximum of no rows are NaN
+     */
+    public static double[][] scan(CovidDataTable table, int startDay, int endDay, int boroughId)
+    {
+        CovidMetric[] metrics = CovidMetric.values();
+        long[] sums = new long[metrics.length];
+        int[] mins = new int[metrics.length];
+        int[] maxs = new int[metrics.length];
+        int count = 0;
+        for (int row = 0; row < table.getRowCount(); row++)
+        {
+            int day = table.getDate(row);
+            if (day >= startDay && day <= endDay && (boroughId == AggregationQuery.ALL_BOROUGHS || table.getBoroughId(row) == boroughId))
+            {
+                for (CovidMetric metric : metrics)
+                {
+                    int m = metric.ordinal();
+                    int value = table.getValue(metric, row);
+                    sums[m] += value;
+                    mins[m] = count == 0 ? value : Math.min(mins[m], value);
+                    maxs[m] = count == 0 ? value : Math.max(maxs[m], value);
+                }
+                count++;
+            }
+        }
+        double[][] statistics = new double[metrics.length][AggregateFunction.values().length];
+        for (int m = 0; m < metrics.length; m++)
+        {
+            statistics[m][AggregateFunction.SUM.ordinal()] = sums[m];
+            statistics[m][AggregateFunction.MEAN.ordinal()] = count == 0 ? Double.NaN : (double) sums[m] / count;
+            statistics[m][AggregateFunction.MIN.ordinal()] = count == 0 ? Double.NaN : mins[m];
+            statistics[m][AggregateFunction.MAX.ordinal()] = count == 0 ? Double.NaN : maxs[m];
+            statistics[m][AggregateFunction.COUNT.ordinal()] = count;
+        }
+        return statistics;
+    }
+
+    /**
+     * Works out the latest value of a metric for a borough by reading every row of the table: the highest value so
+     * far for running totals, as empty cells read as 0, or else the value of the borough's last row.
+     *
+     * @return the value on or before the day, or 0 if the borough has no rows that early
+     */
+    public static int asOf(CovidDataTable table, CovidMetric metric, int boroughId, int epochDay)
+    {
+        int latest = 0;
+        for (int row = 0; row < table.getRowCount() && table.getDate(row) <= epochDay; row++)
+        {
+            if (table.getBoroughId(row) == boroughId)
+            {
+                int value = table.getValue(metric, row);
+                latest = metric.isCumulative() ? Math.max(latest, value) : value;
+            }
+        }
+        return latest;
+    }
+}